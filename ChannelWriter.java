@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered UTF-8 writer on top of a FileChannel.
+ *
+ * <p>Besides writing characters, it lets components copy byte regions of
+ * other files straight into the output with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which avoids decoding them and, on most platforms, copying them through
+ * the heap. See {@link FileRegionComponent}.</p>
+ */
+public class ChannelWriter extends Writer {
+
+    /** Channel the encoded output is written to */
+    private final FileChannel channel;
+
+    /** Encoder of the buffered characters */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** Characters written but not yet encoded */
+    private final CharBuffer chars = CharBuffer.allocate(8192);
+
+    /** Encoded bytes not yet written to the channel */
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(32768);
+
+    /** Bytes written to the channel so far */
+    private long written;
+
+    /** Characters written plus bytes of transferred regions */
+    private long charsWritten;
+
+    /**
+     * @param channel channel opened for writing; closed with this writer
+     */
+    public ChannelWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        this.charsWritten += len;
+        while (len > 0) {
+            int n = Math.min(len, this.chars.remaining());
+            this.chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+            if (!this.chars.hasRemaining()) {
+                drain(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        CharSequence s = csq == null ? "null" : csq;
+        return append(s, 0, s.length());
+    }
+
+    /**
+     * Buffers a range of characters without first copying it to a String.
+     */
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        CharSequence s = csq == null ? "null" : csq;
+        this.charsWritten += end - start;
+        while (start < end) {
+            int n = Math.min(end - start, this.chars.remaining());
+            int at = this.chars.position();
+            if (s instanceof String) {
+                ((String) s).getChars(start, start + n, this.chars.array(), at);
+            } else if (s instanceof StringBuilder) {
+                ((StringBuilder) s).getChars(start, start + n, this.chars.array(), at);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    this.chars.array()[at + i] = s.charAt(start + i);
+                }
+            }
+            this.chars.position(at + n);
+            start += n;
+            if (!this.chars.hasRemaining()) {
+                drain(false);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Copies a byte region of a file to the output without decoding it.
+     * Pending characters are written first.
+     *
+     * @param source   file to copy from
+     * @param position first byte of the region
+     * @param count    number of bytes to copy
+     * @throws IOException if reading or writing fails
+     */
+    public void transferFrom(FileChannel source, long position, long count) throws IOException {
+        drain(true);
+        this.encoder.reset();
+        while (count > 0) {
+            long n = source.transferTo(position, count, this.channel);
+            if (n <= 0) {
+                // Source ended before the region did
+                break;
+            }
+            position += n;
+            count -= n;
+            this.written += n;
+            this.charsWritten += n;
+        }
+    }
+
+    /**
+     * Returns the number of characters written so far. A region copied by
+     * {@link #transferFrom(FileChannel, long, long)} counts one per byte.
+     *
+     * @return characters written
+     */
+    public long getCharsWritten() {
+        return this.charsWritten;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain(true);
+            this.encoder.flush(this.bytes);
+            writeBytes();
+        } finally {
+            this.channel.close();
+            Metrics.count(Metrics.Count.BYTES_WRITTEN, this.written);
+            this.written = 0;
+        }
+    }
+
+    /**
+     * Encodes the buffered characters and writes them to the channel. Unless
+     * {@code endOfInput} is set, a trailing high surrogate is kept for the
+     * next write.
+     */
+    private void drain(boolean endOfInput) throws IOException {
+        this.chars.flip();
+        while (true) {
+            CoderResult result = this.encoder.encode(this.chars, this.bytes, endOfInput);
+            writeBytes();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        this.chars.compact();
+    }
+
+    private void writeBytes() throws IOException {
+        this.bytes.flip();
+        while (this.bytes.hasRemaining()) {
+            this.written += this.channel.write(this.bytes);
+        }
+        this.bytes.clear();
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Draws of constrained {@link VerticalComposite} choices made during one
+ * render, shared by all contexts split off the same root context.
+ *
+ * <p>Not thread-safe. Trees with constrained choices are rendered on a
+ * single thread, see {@link ParallelRenderer}.</p>
+ */
+final class ChoiceState {
+
+    /** Batch the render belongs to, or null */
+    private final VariantBatch batch;
+
+    /** Index of the rendered variant in the batch */
+    private final int variant;
+
+    /** Per composite: number of draws followed by a ring of the last draws */
+    private Map<VerticalComposite, int[]> records;
+
+    /**
+     * @param batch   batch the render belongs to, or null
+     * @param variant index of the rendered variant in the batch
+     */
+    ChoiceState(VariantBatch batch, int variant) {
+        this.batch = batch;
+        this.variant = variant;
+    }
+
+    /**
+     * Returns the batch the render belongs to.
+     *
+     * @return the batch, or null outside of a batch
+     */
+    VariantBatch getBatch() {
+        return this.batch;
+    }
+
+    /**
+     * Returns the index of the rendered variant in the batch.
+     *
+     * @return variant index, 0 outside of a batch
+     */
+    int getVariant() {
+        return this.variant;
+    }
+
+    /**
+     * Returns the draws made from a composite so far: the number of draws
+     * followed by a ring buffer of the last {@code history} draws.
+     *
+     * @param composite composite drawn from
+     * @param history   length of the ring buffer
+     * @return mutable record of the composite
+     */
+    int[] record(VerticalComposite composite, int history) {
+        if (this.records == null) {
+            this.records = new IdentityHashMap<>();
+        }
+        int[] record = this.records.get(composite);
+        if (record == null || record.length != history + 1) {
+            record = new int[history + 1];
+            this.records.put(composite, record);
+        }
+        return record;
+    }
+}
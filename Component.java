@@ -1,23 +1,92 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * Common component in a Composite design pattern.
  *
  * <p>Implementations of this interface represent nodes in a tree structure:
- * - Leaf implementations encapsulate primitive elements and return their own
+ * - Leaf implementations encapsulate primitive elements and write their own
  *   textual representation.
- * - Composite implementations contain children and typically return an aggregated
+ * - Composite implementations contain children and typically write an aggregated
  *   or formatted representation derived from their children.</p>
  *
- * <p>Contract for print():
- * - Returns a human-readable String representation of this component.
- * - Preferably non-null; if an implementation may return null this behavior
- *   should be documented on that implementation.</p>
+ * <p>Contract for render():
+ * - Streams the textual representation of this component to the given
+ *   Appendable in a single pass, without building intermediate Strings.
+ * - Composites render their children straight into the same Appendable.</p>
+ *
+ * <p>Random choices are drawn from a {@link GenerationContext}. Rendering the
+ * same tree with contexts of the same seed yields the same output. Composites
+ * pass a split context to each child so that subtrees draw from independent
+ * streams.</p>
+ *
+ * <p>print() is a compatibility wrapper that renders into a StringBuilder and
+ * returns the result.</p>
  *
  * <p>Implementations decide thread-safety and formatting details. Callers should
- * rely only on the guarantee that print() yields a textual representation and
- * should avoid mutating component state during printing.</p>
+ * rely only on the guarantee that render() yields a textual representation and
+ * should avoid mutating component state during rendering.</p>
  *
  * @see java.util.Collection for common child-management patterns in composites
  */
 interface Component {
-    public String print ();
-}
\ No newline at end of file
+
+    /**
+     * Writes the textual representation of this component to {@code out},
+     * drawing random choices from {@code ctx}.
+     *
+     * @param out destination of the rendered text
+     * @param ctx random state of this subtree
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render (Appendable out, GenerationContext ctx) throws IOException;
+
+    /**
+     * Writes the textual representation of this component to {@code out}
+     * using a freshly seeded context.
+     *
+     * @param out destination of the rendered text
+     * @throws IOException if writing to {@code out} fails
+     */
+    public default void render (Appendable out) throws IOException {
+        render(out, new GenerationContext());
+    }
+
+    /**
+     * Makes this component and its descendants structurally immutable.
+     * Leaves have no structure to freeze, so the default does nothing.
+     */
+    public default void freeze () {
+    }
+
+    /**
+     * Returns the textual representation of this component as a String.
+     *
+     * @return the rendered text
+     */
+    public default String print () {
+        return print(new GenerationContext());
+    }
+
+    /**
+     * Returns the textual representation of this component as a String,
+     * drawing random choices from {@code ctx}.
+     *
+     * @param ctx random state of the render
+     * @return the rendered text
+     */
+    public default String print (GenerationContext ctx) {
+        StringBuilder out = new StringBuilder();
+        // Nested prints are part of the outermost render
+        Metrics.Render timing = Metrics.startRender(out);
+        try {
+            render(out, ctx);
+        } catch (IOException e) {
+            // StringBuilder never throws, but implementations may wrap other sinks
+            throw new UncheckedIOException(e);
+        } finally {
+            timing.stop();
+        }
+        return out.toString();
+    }
+}
@@ -1,37 +1,79 @@
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * Composite component in the Composite design pattern.
  * Manages a collection of child components.
+ *
+ * <p>Children are kept in an array so that indexed access is O(1). Once a
+ * tree is fully built it can be frozen, which trims the array to its exact
+ * size and rejects further structural changes.</p>
  */
-class Composite implements Component {
+class Composite extends TrackedComponent {
 
-    /** List of child components */
-    public LinkedList<Component> children;
+    /** Shared backing array of composites without children */
+    private static final Component[] EMPTY = new Component[0];
+
+    /** Child components; only the first {@code size} slots are used */
+    private Component[] children;
+
+    /** Number of child components */
+    private int size;
+
+    /** Whether this composite rejects further structural changes */
+    private boolean frozen;
 
     /**
      * Creates an empty Composite.
      */
     public Composite() {
-        this.children = new LinkedList<Component>();
+        this.children = EMPTY;
     }
 
     /**
      * Adds a component to this composite.
      *
      * @param c the component to add
+     * @throws UnsupportedOperationException if this composite is frozen
      */
     public void add(Component c) {
-        this.children.add(c);
+        checkNotFrozen();
+        if (this.size == this.children.length) {
+            int capacity = Math.max(4, this.size + (this.size >> 1));
+            this.children = Arrays.copyOf(this.children, capacity);
+        }
+        this.children[this.size++] = c;
+        attach(c, this);
+        changed();
     }
 
     /**
-     * Removes a component from this composite.
+     * Removes the first occurrence of a component from this composite.
      *
      * @param c the component to remove
+     * @throws UnsupportedOperationException if this composite is frozen
      */
     public void remove(Component c) {
-        this.children.remove(c);
+        checkNotFrozen();
+        for (int i = 0; i < this.size; i++) {
+            if (Objects.equals(c, this.children[i])) {
+                removeAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the child at the given index.
+     *
+     * @param i index of the child
+     */
+    void removeAt(int i) {
+        detach(this.children[i], this);
+        System.arraycopy(this.children, i + 1, this.children, i, this.size - i - 1);
+        this.children[--this.size] = null;
+        changed();
     }
 
     /**
@@ -39,22 +81,73 @@ class Composite implements Component {
      *
      * @param i index of the child
      * @return the child component
+     * @throws IndexOutOfBoundsException if {@code i} is out of range
      */
     public Component getChild(int i) {
-        return this.children.get(i);
+        return this.children[Objects.checkIndex(i, this.size)];
+    }
+
+    /**
+     * Returns the number of child components.
+     *
+     * @return number of children
+     */
+    public int size() {
+        return this.size;
     }
 
     /**
-     * Prints all child components by delegating to their print methods.
+     * Trims the child array to its exact size and freezes this composite and
+     * all of its descendants. Frozen composites can be shared between threads;
+     * their purity is analysed here, once.
+     */
+    @Override
+    public void freeze() {
+        if (this.frozen) {
+            return;
+        }
+        this.frozen = true;
+        if (this.children.length != this.size) {
+            this.children = this.size == 0 ? EMPTY : Arrays.copyOf(this.children, this.size);
+        }
+        for (int i = 0; i < this.size; i++) {
+            this.children[i].freeze();
+        }
+        frozen();
+    }
+
+    /**
+     * Returns whether this composite has been frozen.
+     *
+     * @return true if structural changes are rejected
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /**
+     * Renders all child components in order, each followed by a newline.
+     * Every child receives its own split of {@code ctx}. Served from the
+     * context's cache instead if the composite is pure.
      *
-     * @return combined string representation of all children
+     * @param out destination of the rendered text
+     * @param ctx random state of this subtree
+     * @throws IOException if writing to {@code out} fails
      */
-    public String print() {
-        StringBuilder output = new StringBuilder("");
-        for (int i = 0; i < this.children.size(); i++) {
-            output.append(this.children.get(i).print());
-            output.append("\n");
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        SubtreeCache cache = ctx.getCache();
+        if (cache != null && cache.render(this, out)) {
+            return;
+        }
+        for (int i = 0; i < this.size; i++) {
+            this.children[i].render(out, ctx.split());
+            out.append('\n');
+        }
+    }
+
+    void checkNotFrozen() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("Composite is frozen");
         }
-        return output.toString();
     }
 }
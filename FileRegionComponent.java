@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Leaf component that represents the UTF-8 contents of a file, without its
+ * trailing line break.
+ *
+ * <p>The file is only opened when the component is rendered, and the whole
+ * content is never held in a String. Line breaks are rendered as
+ * {@link System#lineSeparator()}, like the text of a file read into a
+ * {@link StringComponent}, so the size of a file does not change its
+ * output. Rendering into a {@link ChannelWriter} transfers the bytes
+ * straight from file to file when the file already uses that line
+ * separator throughout; this is checked once per version of the file.
+ * Otherwise, and for any other Appendable, the text is decoded in small
+ * chunks through a buffer that only lives for the render.</p>
+ */
+public class FileRegionComponent implements Component {
+
+    /** Bytes read from the file at once */
+    private static final int CHUNK = 64 * 1024;
+
+    /** File whose contents are rendered */
+    private final Path file;
+
+    /** Line break check of the last version of the file seen, or null */
+    private volatile Scan scan;
+
+    /** Whether a version of the file only uses the platform's line separator */
+    private static final class Scan {
+        final long size;
+        final FileTime modified;
+        final boolean nativeBreaks;
+
+        Scan(long size, FileTime modified, boolean nativeBreaks) {
+            this.size = size;
+            this.modified = modified;
+            this.nativeBreaks = nativeBreaks;
+        }
+    }
+
+    /**
+     * @param file file whose contents are rendered
+     */
+    public FileRegionComponent(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file whose contents are rendered.
+     *
+     * @return the file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Streams the file's contents to {@code out}.
+     *
+     * @param out destination of the rendered text
+     * @param ctx unused, leaves make no random choices
+     * @throws IOException if the file cannot be read or writing fails
+     */
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long length = contentLength(channel);
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(CHUNK, Math.max(length, 16)));
+            if (out instanceof ChannelWriter && nativeBreaks(channel, length, bytes)) {
+                ((ChannelWriter) out).transferFrom(channel, 0, length);
+            } else {
+                decode(channel, length, bytes, out);
+            }
+        }
+    }
+
+    /**
+     * Returns whether every line break of the first {@code length} bytes is
+     * the platform's line separator, so the bytes can be copied verbatim.
+     */
+    private boolean nativeBreaks(FileChannel channel, long length, ByteBuffer bytes) throws IOException {
+        long size = channel.size();
+        FileTime modified = Files.getLastModifiedTime(this.file);
+        Scan known = this.scan;
+        if (known != null && known.size == size && known.modified.equals(modified)) {
+            return known.nativeBreaks;
+        }
+        boolean crlf = System.lineSeparator().equals("\r\n");
+        boolean nativeBreaks = true;
+        byte previous = 0;
+        for (long position = 0; position < length && nativeBreaks; ) {
+            bytes.clear().limit((int) Math.min(bytes.capacity(), length - position));
+            int n = channel.read(bytes, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+            for (int i = 0; i < n && nativeBreaks; i++) {
+                byte b = bytes.get(i);
+                if (crlf) {
+                    // Every \n follows a \r, every \r is followed by a \n
+                    nativeBreaks = (b != '\n' || previous == '\r') && (previous != '\r' || b == '\n');
+                } else {
+                    nativeBreaks = b != '\r';
+                }
+                previous = b;
+            }
+        }
+        if (crlf && previous == '\r') {
+            nativeBreaks = false;
+        }
+        this.scan = new Scan(size, modified, nativeBreaks);
+        return nativeBreaks;
+    }
+
+    /**
+     * Returns the size of the file minus one trailing line break.
+     */
+    private static long contentLength(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(2);
+        long from = Math.max(0, size - 2);
+        while (tail.hasRemaining() && channel.read(tail, from + tail.position()) > 0) {
+            // read both tail bytes
+        }
+        tail.flip();
+        byte last = tail.get(tail.limit() - 1);
+        if (last == '\n') {
+            boolean crlf = tail.limit() == 2 && tail.get(0) == '\r';
+            return size - (crlf ? 2 : 1);
+        }
+        return last == '\r' ? size - 1 : size;
+    }
+
+    /**
+     * Decodes the first {@code length} bytes chunk by chunk and appends the
+     * text to {@code out} with its line breaks replaced by the platform's.
+     */
+    private static void decode(FileChannel channel, long length, ByteBuffer bytes, Appendable out)
+            throws IOException {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chunk = CharBuffer.allocate(bytes.capacity());
+        String separator = System.lineSeparator();
+        boolean afterCr = false;
+        long position = 0;
+        boolean last = false;
+        bytes.clear();
+        while (!last) {
+            // Bytes of a character split by the chunk boundary stay at the front
+            bytes.limit(bytes.position() + (int) Math.min(bytes.remaining(), length - position));
+            while (bytes.hasRemaining()) {
+                int n = channel.read(bytes, position);
+                if (n < 0) {
+                    // The file shrank since its length was taken
+                    break;
+                }
+                position += n;
+            }
+            last = position == length || bytes.hasRemaining();
+            bytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chunk, last);
+                afterCr = appendLines(chunk.flip(), afterCr, separator, out);
+                chunk.clear();
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+        decoder.flush(chunk);
+        appendLines(chunk.flip(), afterCr, separator, out);
+    }
+
+    /**
+     * Appends decoded text with every \r\n, \r and \n replaced by
+     * {@code separator}.
+     *
+     * @param afterCr whether the text before this chunk ended with \r
+     * @return whether this chunk ended with \r
+     */
+    private static boolean appendLines(CharBuffer chars, boolean afterCr, String separator, Appendable out)
+            throws IOException {
+        int n = chars.remaining();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = chars.get(i);
+            if (c == '\r' || c == '\n') {
+                out.append(chars, start, i);
+                if (c == '\r' || !afterCr) {
+                    out.append(separator);
+                }
+                start = i + 1;
+            }
+            afterCr = c == '\r';
+        }
+        out.append(chars, start, n);
+        return afterCr;
+    }
+}
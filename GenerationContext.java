@@ -0,0 +1,156 @@
+import java.util.SplittableRandom;
+
+/**
+ * Carries the random state used while rendering a Component tree.
+ *
+ * <p>A context is created from a seed, so rendering the same tree with a
+ * context of the same seed always produces the same output. Composites hand
+ * each child its own {@link #split() split} context, which means every
+ * subtree draws from an independent stream whose values do not depend on
+ * how much randomness its siblings consumed.</p>
+ *
+ * <p>A context may also carry a {@link SubtreeCache}, which is handed down
+ * to every split context. All contexts of one render share the record of
+ * earlier draws that constrained {@link VerticalComposite} choices consult,
+ * and the {@link VariantBatch} the render belongs to, if any.</p>
+ *
+ * <p>A context is not thread-safe; split contexts may be used on different
+ * threads.</p>
+ */
+public class GenerationContext {
+
+    /** Seed of the root context this context was derived from */
+    private final long seed;
+
+    /** Random stream of this context */
+    private final SplittableRandom random;
+
+    /** Cache of pure subtrees, or null to render everything */
+    private final SubtreeCache cache;
+
+    /** Draws of constrained choices made so far in this render */
+    private final ChoiceState choices;
+
+    /**
+     * Creates a context with a freshly chosen seed. The seed can be read back
+     * through {@link #getSeed()} to reproduce the output later.
+     */
+    public GenerationContext() {
+        this(new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Creates a context with the given seed.
+     *
+     * @param seed seed of the random stream
+     */
+    public GenerationContext(long seed) {
+        this(seed, new SplittableRandom(seed), null, new ChoiceState(null, 0));
+    }
+
+    /**
+     * Creates the root context of one variant of a batch.
+     *
+     * @param seed    seed of the variant
+     * @param batch   batch the variant belongs to
+     * @param variant index of the variant in the batch
+     */
+    GenerationContext(long seed, VariantBatch batch, int variant) {
+        this(seed, new SplittableRandom(seed), null, new ChoiceState(batch, variant));
+    }
+
+    private GenerationContext(long seed, SplittableRandom random, SubtreeCache cache, ChoiceState choices) {
+        this.seed = seed;
+        this.random = random;
+        this.cache = cache;
+        this.choices = choices;
+    }
+
+    /**
+     * Returns a context that continues this context's stream and serves pure
+     * subtrees from the given cache.
+     *
+     * @param cache cache of pure subtrees, or null to disable caching
+     * @return context using the cache
+     */
+    public GenerationContext withCache(SubtreeCache cache) {
+        return new GenerationContext(this.seed, this.random, cache, this.choices);
+    }
+
+    /**
+     * Returns the cache of pure subtrees.
+     *
+     * @return the cache, or null if caching is disabled
+     */
+    public SubtreeCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * Returns the draws of constrained choices made so far in this render.
+     *
+     * @return state shared by all contexts of the render
+     */
+    ChoiceState getChoices() {
+        return this.choices;
+    }
+
+    /**
+     * Returns the seed of the root context.
+     *
+     * @return seed that reproduces the output of the whole render
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns a new context with a random stream independent of this one.
+     * Advances this context's stream by a fixed amount.
+     *
+     * @return context for a subtree
+     */
+    public GenerationContext split() {
+        return new GenerationContext(this.seed, this.random.split(), this.cache, this.choices);
+    }
+
+    /**
+     * Advances this context's stream like {@code n} calls of {@link #split()},
+     * without creating the contexts.
+     *
+     * @param n number of splits to skip
+     */
+    void skipSplits(int n) {
+        for (int i = 0; i < n; i++) {
+            this.random.split();
+        }
+    }
+
+    /**
+     * Draws a uniformly distributed int between 0 (inclusive) and bound (exclusive).
+     *
+     * @param bound upper bound, must be positive
+     * @return the drawn value
+     */
+    public int nextInt(int bound) {
+        return this.random.nextInt(bound);
+    }
+
+    /**
+     * Draws a uniformly distributed double between 0 (inclusive) and 1 (exclusive).
+     *
+     * @return the drawn value
+     */
+    public double nextDouble() {
+        return this.random.nextDouble();
+    }
+
+    /**
+     * Draws a uniformly distributed long.
+     *
+     * @return the drawn value
+     */
+    public long nextLong() {
+        return this.random.nextLong();
+    }
+}
@@ -1,23 +1,49 @@
-import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.TimeoutException;
 import java.io.IOException;
 
 /**
  * Entry point of the application.
  * Builds components from Obsidian notes and renders them using LilyPond.
+ *
+ * <p>Notes are read from the default vault, see {@link FileSystemVault#getDefault()}.</p>
  */
 public class Main {
     /**
      * Application entry point — prints computer science notes and a music score.
+     * With {@code --watch}, keeps running and re-prints the notes whenever the
+     * vault changes.
      *
      * @param args command-line arguments
      * @throws IOException if an I/O error occurs during printing
      */
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--watch")) {
+            watch_computer_science_notes();
+            return;
+        }
         print_computer_science_notes();
         print_music_score();
+        if (Metrics.ENABLED) {
+            System.out.println(Metrics.summary());
+        }
+    }
+
+    /**
+     * Prints the computer science notes and re-prints them whenever a note
+     * they include changes. Runs until the process is stopped.
+     *
+     * @throws IOException if the vault cannot be watched
+     */
+    private static void watch_computer_science_notes() throws IOException {
+        try (VaultWatcher watcher = new VaultWatcher(FileSystemVault.getDefault())) {
+            watcher.watch("Informatik/_Index.md", c -> Main.print(c, "ws2526"));
+            watcher.run();
+        }
     }
 
     /**
@@ -29,10 +55,7 @@ public class Main {
      */
     private static void print_music_score() {
         ObsidianBuilder builder = new ObsidianBuilder();
-        builder.makeFromObsidian(
-            "/Users/konradbogen/Library/Mobile Documents/com~apple~CloudDocs/Obsidian/konrad/Musik/Beat.md",
-            null
-        );
+        builder.makeFromObsidian("Musik/Beat.md", null);
         LilyPond lily = new LilyPond(builder.getComponent());
         String lilyPath = "/Applications/LilyPond 2.app/Contents/Resources/bin/lilypond";
         LilypondRenderer renderer = new LilypondRenderer(lilyPath);
@@ -54,26 +77,42 @@ public class Main {
     private static void print_computer_science_notes() {
         ObsidianBuilder builder = new ObsidianBuilder();
 
-        builder.makeFromObsidian(
-            "/Users/konradbogen/Library/Mobile Documents/com~apple~CloudDocs/Obsidian/konrad/Informatik/_Index.md",
-            ""
-        );
+        builder.makeFromObsidian("Informatik/_Index.md", "");
         Main.print(builder.getComponent(), "ws2526");
     }
 
     /**
-     * Writes the printed representation of a component to a text file.
+     * Streams the rendered representation of a component to a text file
+     * using a freshly seeded context.
      *
      * @param c    the component to print
      * @param name base name of the output file (without extension)
      */
     public static void print(Component c, String name) {
-        try {
-            PrintWriter writer = new PrintWriter(name + ".txt", "UTF-8");
-            writer.println(c.print());
-            writer.close();
+        Main.print(c, name, new GenerationContext());
+    }
+
+    /**
+     * Streams the rendered representation of a component to a text file and
+     * logs the seed that reproduces it.
+     *
+     * @param c    the component to print
+     * @param name base name of the output file (without extension)
+     * @param ctx  random state of the render
+     */
+    public static void print(Component c, String name, GenerationContext ctx) {
+        try (Writer writer = new ChannelWriter(FileChannel.open(Paths.get(name + ".txt"),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            Metrics.Render timing = Metrics.startRender(writer);
+            try {
+                c.render(writer, ctx);
+            } finally {
+                timing.stop();
+            }
+            writer.write(System.lineSeparator());
         } catch (IOException e) {
             e.printStackTrace();
         }
+        System.out.println(name + ".txt written with seed " + ctx.getSeed());
     }
 }
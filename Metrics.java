@@ -0,0 +1,432 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Timers and counters of the stages of the pipeline, from parsing the vault
+ * to running LilyPond.
+ *
+ * <p>Metrics are off unless the JVM is started with
+ * {@code -Dcomposite.metrics=true}. {@link #ENABLED} is a constant, so with
+ * metrics off every call below reduces to nothing once compiled.</p>
+ *
+ * <p>With metrics on, every measurement goes to the {@link Summary} returned
+ * by {@link #summary()}, to the {@link Registry} set with
+ * {@link #setRegistry(Registry)}, and to Java Flight Recorder:
+ * {@code composite.Stage} events for each timed stage and a periodic
+ * {@code composite.Counters} event with the totals of the counters.</p>
+ *
+ * <p>A stage that is entered again on the same thread while it is running,
+ * for example a component printed while the tree renders, is timed only
+ * once. Different stages may nest: assembling a LilyPond score includes
+ * rendering its content. Renders are timed through
+ * {@link #startRender(Appendable)}, which also counts the characters of
+ * the outermost render, whatever it renders into.</p>
+ */
+public final class Metrics {
+
+    /** Whether metrics are recorded, set by the system property {@code composite.metrics} */
+    public static final boolean ENABLED = Boolean.getBoolean("composite.metrics");
+
+    /** Timed stages of the pipeline */
+    public enum Stage {
+        /** Parsing the vault into a tree, {@code ObsidianBuilder.makeFromObsidian} */
+        BUILD,
+        /** Rendering a tree into text */
+        RENDER,
+        /** Assembling a LilyPond score from the template and the voices */
+        ASSEMBLE,
+        /** Waiting for a free LilyPond process or worker */
+        QUEUE,
+        /** Running LilyPond on a score */
+        PROCESS
+    }
+
+    /** Counted events of the pipeline */
+    public enum Count {
+        /** Files of the vault read line by line */
+        FILES_READ,
+        /** Components created by builds */
+        NODES_BUILT,
+        /** Notes and text inclusions reused from a {@code NoteCache} */
+        NOTE_CACHE_HITS,
+        /** Notes and text inclusions parsed because their cached copy was missing or stale */
+        NOTE_CACHE_MISSES,
+        /** Pure subtrees served from a {@link SubtreeCache} */
+        SUBTREE_CACHE_HITS,
+        /** Pure subtrees a {@link SubtreeCache} had to render */
+        SUBTREE_CACHE_MISSES,
+        /**
+         * Characters rendered by outermost renders into a StringBuilder or a
+         * {@link ChannelWriter}; file regions copied without decoding count
+         * one per byte
+         */
+        CHARS_RENDERED,
+        /** Bytes written to files by a {@link ChannelWriter} */
+        BYTES_WRITTEN,
+        /** Renders answered by a {@code LilypondOutputCache} */
+        RENDER_CACHE_HITS,
+        /** Renders a {@code LilypondOutputCache} had to run LilyPond for */
+        RENDER_CACHE_MISSES,
+        /** LilyPond processes started */
+        PROCESSES_STARTED
+    }
+
+    /** Receives the measurements, for example to forward them to a monitoring system */
+    public interface Registry {
+
+        /**
+         * Records one run of a stage. Called on the thread that ran it.
+         *
+         * @param stage   the stage
+         * @param elapsed duration in nanoseconds
+         */
+        void time(Stage stage, long elapsed);
+
+        /**
+         * Adds to a counter.
+         *
+         * @param count the counter
+         * @param delta amount to add
+         */
+        void count(Count count, long delta);
+    }
+
+    /** Returned by {@link #start(Stage)} when the run is not timed */
+    private static final long UNTIMED = Long.MIN_VALUE;
+
+    private static final Summary SUMMARY = new Summary();
+
+    /** Depth of each stage on the current thread */
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[Stage.values().length]);
+
+    private static volatile Registry registry;
+
+    static {
+        if (ENABLED) {
+            FlightRecorder.addPeriodicEvent(CountersEvent.class, Metrics::emitCounters);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Sets a registry that receives every measurement in addition to the
+     * {@link #summary()}.
+     *
+     * @param registry the registry, or null for none
+     */
+    public static void setRegistry(Registry registry) {
+        Metrics.registry = registry;
+    }
+
+    /**
+     * Returns the registry set with {@link #setRegistry(Registry)}.
+     *
+     * @return the registry, or null if none is set
+     */
+    public static Registry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns the totals of all measurements of this JVM.
+     *
+     * @return the summary, empty while metrics are off
+     */
+    public static Summary summary() {
+        return SUMMARY;
+    }
+
+    /**
+     * Starts timing a stage. Every call must be matched by a call to
+     * {@link #stop(Stage, long)}, usually in a {@code finally} block.
+     *
+     * @param stage the stage
+     * @return value to pass to {@code stop}
+     */
+    public static long start(Stage stage) {
+        if (!ENABLED) {
+            return UNTIMED;
+        }
+        return DEPTH.get()[stage.ordinal()]++ == 0 ? System.nanoTime() : UNTIMED;
+    }
+
+    /**
+     * Starts timing a render into {@code out}. Every call must be matched by
+     * a call to {@link Render#stop()}, usually in a {@code finally} block.
+     * Only the outermost render of a thread is timed, and it adds the
+     * characters it appended to {@code out} to {@link Count#CHARS_RENDERED}.
+     * Renders into other Appendables than a StringBuilder or a
+     * {@link ChannelWriter} are timed but not counted.
+     *
+     * @param out destination of the render
+     * @return the render to stop
+     */
+    public static Render startRender(Appendable out) {
+        long start = start(Stage.RENDER);
+        return start == UNTIMED ? Render.UNTIMED_RENDER : new Render(start, out);
+    }
+
+    /** Characters in a render destination so far, or -1 if they cannot be told */
+    private static long length(Appendable out) {
+        if (out instanceof StringBuilder) {
+            return ((StringBuilder) out).length();
+        }
+        if (out instanceof ChannelWriter) {
+            return ((ChannelWriter) out).getCharsWritten();
+        }
+        return -1;
+    }
+
+    /** A render timed by {@link #startRender(Appendable)} */
+    public static final class Render {
+
+        /** Stands for renders that are not timed, nested or with metrics off */
+        private static final Render UNTIMED_RENDER = new Render(UNTIMED, null);
+
+        private final long start;
+        private final Appendable out;
+        private final long before;
+
+        private Render(long start, Appendable out) {
+            this.start = start;
+            this.out = out;
+            this.before = out == null ? -1 : length(out);
+        }
+
+        /** Stops timing the render and counts its characters */
+        public void stop() {
+            Metrics.stop(Stage.RENDER, this.start);
+            if (this.start != UNTIMED && this.before >= 0) {
+                count(Count.CHARS_RENDERED, length(this.out) - this.before);
+            }
+        }
+    }
+
+    /**
+     * Stops timing a stage and records its duration.
+     *
+     * @param stage the stage
+     * @param start value returned by {@link #start(Stage)}
+     */
+    public static void stop(Stage stage, long start) {
+        if (!ENABLED) {
+            return;
+        }
+        DEPTH.get()[stage.ordinal()]--;
+        if (start != UNTIMED) {
+            time(stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a duration measured elsewhere, for example the time a job
+     * waited in a queue.
+     *
+     * @param stage   the stage
+     * @param elapsed duration in nanoseconds
+     */
+    public static void time(Stage stage, long elapsed) {
+        if (!ENABLED) {
+            return;
+        }
+        SUMMARY.time(stage, elapsed);
+        Registry r = registry;
+        if (r != null) {
+            r.time(stage, elapsed);
+        }
+        StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.name();
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param count the counter
+     * @param delta amount to add
+     */
+    public static void count(Count count, long delta) {
+        if (!ENABLED) {
+            return;
+        }
+        SUMMARY.count(count, delta);
+        Registry r = registry;
+        if (r != null) {
+            r.count(count, delta);
+        }
+    }
+
+    private static void emitCounters() {
+        CountersEvent event = new CountersEvent();
+        event.filesRead = SUMMARY.getCount(Count.FILES_READ);
+        event.nodesBuilt = SUMMARY.getCount(Count.NODES_BUILT);
+        event.noteCacheHitRate = SUMMARY.getHitRate(Count.NOTE_CACHE_HITS, Count.NOTE_CACHE_MISSES);
+        event.subtreeCacheHitRate = SUMMARY.getHitRate(Count.SUBTREE_CACHE_HITS, Count.SUBTREE_CACHE_MISSES);
+        event.charsRendered = SUMMARY.getCount(Count.CHARS_RENDERED);
+        event.bytesWritten = SUMMARY.getCount(Count.BYTES_WRITTEN);
+        event.renderCacheHitRate = SUMMARY.getHitRate(Count.RENDER_CACHE_HITS, Count.RENDER_CACHE_MISSES);
+        event.processesStarted = SUMMARY.getCount(Count.PROCESSES_STARTED);
+        event.commit();
+    }
+
+    /** Registry that keeps totals */
+    public static final class Summary implements Registry {
+
+        private final Map<Stage, LongAdder> runs = new EnumMap<>(Stage.class);
+        private final Map<Stage, LongAdder> nanos = new EnumMap<>(Stage.class);
+        private final Map<Count, LongAdder> counts = new EnumMap<>(Count.class);
+
+        public Summary() {
+            for (Stage stage : Stage.values()) {
+                this.runs.put(stage, new LongAdder());
+                this.nanos.put(stage, new LongAdder());
+            }
+            for (Count count : Count.values()) {
+                this.counts.put(count, new LongAdder());
+            }
+        }
+
+        @Override
+        public void time(Stage stage, long elapsed) {
+            this.runs.get(stage).increment();
+            this.nanos.get(stage).add(elapsed);
+        }
+
+        @Override
+        public void count(Count count, long delta) {
+            this.counts.get(count).add(delta);
+        }
+
+        /**
+         * @param stage the stage
+         * @return number of timed runs of the stage
+         */
+        public long getRuns(Stage stage) {
+            return this.runs.get(stage).sum();
+        }
+
+        /**
+         * @param stage the stage
+         * @return total duration of the stage in nanoseconds
+         */
+        public long getNanos(Stage stage) {
+            return this.nanos.get(stage).sum();
+        }
+
+        /**
+         * @param count the counter
+         * @return its total
+         */
+        public long getCount(Count count) {
+            return this.counts.get(count).sum();
+        }
+
+        /**
+         * Returns the share of hits among all lookups of a cache.
+         *
+         * @param hits   counter of the hits
+         * @param misses counter of the misses
+         * @return hits per lookup, 0 if there were none
+         */
+        public double getHitRate(Count hits, Count misses) {
+            long h = getCount(hits);
+            long total = h + getCount(misses);
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        /**
+         * Clears all totals.
+         */
+        public void reset() {
+            this.runs.values().forEach(LongAdder::reset);
+            this.nanos.values().forEach(LongAdder::reset);
+            this.counts.values().forEach(LongAdder::reset);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("Metrics:");
+            for (Stage stage : Stage.values()) {
+                long n = getRuns(stage);
+                if (n > 0) {
+                    s.append(String.format("%n  %-8s %8d runs %12.3f ms total %10.3f ms mean",
+                        stage, n, getNanos(stage) / 1e6, getNanos(stage) / 1e6 / n));
+                }
+            }
+            for (Count count : Count.values()) {
+                s.append(String.format("%n  %-20s %12d", count, getCount(count)));
+            }
+            s.append(String.format("%n  note cache hit rate    %.1f%%",
+                100 * getHitRate(Count.NOTE_CACHE_HITS, Count.NOTE_CACHE_MISSES)));
+            s.append(String.format("%n  subtree cache hit rate %.1f%%",
+                100 * getHitRate(Count.SUBTREE_CACHE_HITS, Count.SUBTREE_CACHE_MISSES)));
+            s.append(String.format("%n  render cache hit rate  %.1f%%",
+                100 * getHitRate(Count.RENDER_CACHE_HITS, Count.RENDER_CACHE_MISSES)));
+            return s.toString();
+        }
+    }
+
+    @Name("composite.Stage")
+    @Label("Pipeline Stage")
+    @Category("Composite")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+
+    @Name("composite.Counters")
+    @Label("Pipeline Counters")
+    @Category("Composite")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class CountersEvent extends Event {
+        @Label("Files Read")
+        long filesRead;
+
+        @Label("Nodes Built")
+        long nodesBuilt;
+
+        @Label("Note Cache Hit Rate")
+        @Percentage
+        double noteCacheHitRate;
+
+        @Label("Subtree Cache Hit Rate")
+        @Percentage
+        double subtreeCacheHitRate;
+
+        @Label("Characters Rendered")
+        long charsRendered;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Render Cache Hit Rate")
+        @Percentage
+        double renderCacheHitRate;
+
+        @Label("LilyPond Processes Started")
+        long processesStarted;
+    }
+}
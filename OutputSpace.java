@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The combinatorial output space of a Component tree.
+ *
+ * <p>Following the readme's reading of the tree as a regular expression, a
+ * Composite multiplies the sizes of its children (concatenation), a
+ * VerticalComposite adds them (union) and a Repeat raises its child to the
+ * power of its count, summed over every count of its range. The size is
+ * the number of distinct derivations, i.e. distinct sequences of choices.
+ * It equals the number of distinct output texts as long as different
+ * choices render different text.</p>
+ *
+ * <p>Weights do not bias the space: every derivation counts once, except
+ * that children of weight 0 are left out since they are never drawn.
+ * Constrained choices (see {@link VerticalComposite#isConstrained()}) make
+ * derivations depend on each other and cannot be enumerated.</p>
+ *
+ * <p>Every derivation has an index in {@code [0, size())}. Indices can be
+ * rendered directly, enumerated lazily in ranges (to split the space across
+ * workers) or drawn uniformly at random. Sizes are computed once on
+ * construction; the tree must not be mutated afterwards.</p>
+ */
+public class OutputSpace {
+
+    /** Root of the tree */
+    private final Component root;
+
+    /** Number of derivations of every node, keyed by identity */
+    private final Map<Component, BigInteger> sizes = new IdentityHashMap<>();
+
+    /** Derivations of every Repeat at its smallest count, keyed by identity */
+    private final Map<Component, BigInteger> firstBlocks = new IdentityHashMap<>();
+
+    /**
+     * Computes the size of the output space of a tree.
+     *
+     * @param root root of the tree
+     * @throws IllegalArgumentException if the tree contains a component type
+     *                                  whose outputs cannot be enumerated
+     */
+    public OutputSpace(Component root) {
+        this.root = root;
+        size(root);
+    }
+
+    /**
+     * Returns the number of distinct derivations of the tree.
+     *
+     * @return size of the output space
+     */
+    public BigInteger size() {
+        return this.sizes.get(this.root);
+    }
+
+    /**
+     * Renders the output with the given index.
+     *
+     * @param index index in {@code [0, size())}
+     * @param out   destination of the rendered text
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(BigInteger index, Appendable out) throws IOException {
+        if (index.signum() < 0 || index.compareTo(size()) >= 0) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        render(this.root, index, out);
+    }
+
+    /**
+     * Returns the output with the given index.
+     *
+     * @param index index in {@code [0, size())}
+     * @return the rendered text
+     */
+    public String get(BigInteger index) {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(index, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Draws an index uniformly from {@code [0, size())}.
+     *
+     * @param ctx random state to draw from
+     * @return the drawn index
+     * @throws IllegalStateException if the output space is empty
+     */
+    public BigInteger sampleIndex(GenerationContext ctx) {
+        BigInteger size = size();
+        if (size.signum() == 0) {
+            // Every choice has weight 0, no index could ever be accepted
+            throw new IllegalStateException("No output can be drawn, the output space is empty");
+        }
+        int bits = size.subtract(BigInteger.ONE).bitLength();
+        BigInteger index;
+        do {
+            // Rejection sampling over the smallest power of two covering the space
+            index = BigInteger.ZERO;
+            for (int drawn = 0; drawn < bits; drawn += 63) {
+                long word = ctx.nextLong() >>> 1;
+                index = index.shiftLeft(63).or(BigInteger.valueOf(word));
+            }
+            index = index.shiftRight(Math.max(0, roundUp63(bits) - bits));
+        } while (index.compareTo(size) >= 0);
+        return index;
+    }
+
+    /**
+     * Returns an output drawn uniformly from the output space.
+     *
+     * @param ctx random state to draw from
+     * @return the rendered text
+     * @throws IllegalStateException if the output space is empty
+     */
+    public String sample(GenerationContext ctx) {
+        return get(sampleIndex(ctx));
+    }
+
+    /**
+     * Lazily enumerates every output in index order.
+     *
+     * @return stream of all outputs
+     */
+    public Stream<String> stream() {
+        return stream(BigInteger.ZERO, size());
+    }
+
+    /**
+     * Lazily enumerates the outputs with indices in {@code [from, to)}.
+     * Disjoint ranges can be handed to different workers.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     * @return stream of the outputs in the range
+     */
+    public Stream<String> stream(BigInteger from, BigInteger to) {
+        Iterator<String> iterator = new Iterator<>() {
+            private BigInteger next = from;
+
+            @Override
+            public boolean hasNext() {
+                return this.next.compareTo(to) < 0;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String output = get(this.next);
+                this.next = this.next.add(BigInteger.ONE);
+                return output;
+            }
+        };
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+            false
+        );
+    }
+
+    private static int roundUp63(int bits) {
+        return (bits + 62) / 63 * 63;
+    }
+
+    /**
+     * Computes and records the number of derivations of a subtree.
+     */
+    private BigInteger size(Component c) {
+        BigInteger known = this.sizes.get(c);
+        if (known != null) {
+            return known;
+        }
+        BigInteger size;
+        if (c instanceof StringComponent || c instanceof FileRegionComponent) {
+            size = BigInteger.ONE;
+        } else if (c instanceof VerticalComposite) {
+            VerticalComposite v = (VerticalComposite) c;
+            if (v.isConstrained() && v.size() > 1) {
+                throw new IllegalArgumentException("Cannot enumerate outputs of constrained choices");
+            }
+            size = v.size() == 0 ? BigInteger.ONE : BigInteger.ZERO;
+            for (int i = 0; i < v.size(); i++) {
+                BigInteger child = size(v.getChild(i));
+                if (v.getWeight(i) > 0) {
+                    size = size.add(child);
+                }
+            }
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            size = BigInteger.ONE;
+            for (int i = 0; i < composite.size(); i++) {
+                size = size.multiply(size(composite.getChild(i)));
+            }
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            BigInteger child = size(repeat.getComponent());
+            int min = repeat.getMinCount();
+            int max = repeat.getMaxCount();
+            BigInteger first = child.pow(min);
+            this.firstBlocks.put(c, first);
+            if (child.signum() == 0) {
+                // Only the empty repetition, if the range allows it
+                size = first;
+            } else if (child.equals(BigInteger.ONE)) {
+                size = BigInteger.valueOf(max - min + 1L);
+            } else {
+                // Geometric sum of child^k for k in [min, max]
+                size = child.pow(max + 1).subtract(first).divide(child.subtract(BigInteger.ONE));
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot enumerate outputs of " + c.getClass().getName());
+        }
+        this.sizes.put(c, size);
+        return size;
+    }
+
+    /**
+     * Renders the derivation of a subtree with the given index. Composites
+     * and repeats decode the index as a mixed-radix number whose most
+     * significant digit belongs to the first child; repeats with a range
+     * first pick the count whose block of indices contains it (see
+     * {@link #count(BigInteger, BigInteger, int)}).
+     */
+    private void render(Component c, BigInteger index, Appendable out) throws IOException {
+        if (this.sizes.get(c).equals(BigInteger.ONE)) {
+            // Single derivation, no choices left to decode
+            c.render(out, new GenerationContext(0));
+        } else if (c instanceof VerticalComposite) {
+            VerticalComposite v = (VerticalComposite) c;
+            for (int i = 0; i < v.size(); i++) {
+                Component child = v.getChild(i);
+                if (v.getWeight(i) == 0) {
+                    continue;
+                }
+                BigInteger childSize = this.sizes.get(child);
+                if (index.compareTo(childSize) < 0) {
+                    render(child, index, out);
+                    return;
+                }
+                index = index.subtract(childSize);
+            }
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            Component[] parts = new Component[composite.size()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = composite.getChild(i);
+            }
+            renderDigits(parts, index, out, true);
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            BigInteger child = this.sizes.get(repeat.getComponent());
+            int k;
+            if (child.equals(BigInteger.ONE)) {
+                // Blocks of one index each
+                k = repeat.getMinCount() + index.intValueExact();
+                index = BigInteger.ZERO;
+            } else {
+                // Blocks min..k-1 hold (child^k - child^min) / (child - 1) indices
+                BigInteger first = this.firstBlocks.get(c);
+                BigInteger shifted = index.multiply(child.subtract(BigInteger.ONE)).add(first);
+                k = count(child, shifted, repeat.getMinCount());
+                index = index.subtract(child.pow(k).subtract(first).divide(child.subtract(BigInteger.ONE)));
+            }
+            Component[] parts = new Component[k];
+            Arrays.fill(parts, repeat.getComponent());
+            renderDigits(parts, index, out, false);
+        }
+    }
+
+    /**
+     * Returns the count of a Repeat whose block holds an index. With the
+     * index shifted to {@code index * (child - 1) + child^min}, that is the
+     * largest k with {@code child^k <= shifted}: the blocks before count k
+     * then hold at most the index. The count is estimated from logarithms
+     * and corrected exactly, so only a few powers are computed, however
+     * wide the range of the Repeat.
+     *
+     * @param child   derivations of the repeated child, at least 2
+     * @param shifted shifted index, at least {@code child^min}
+     * @param min     smallest count of the Repeat
+     * @return count of the block holding the index
+     */
+    private static int count(BigInteger child, BigInteger shifted, int min) {
+        int k = Math.max(min, (int) Math.floor(log2(shifted) / log2(child)));
+        BigInteger power = child.pow(k);
+        while (power.compareTo(shifted) > 0) {
+            k--;
+            power = power.divide(child);
+        }
+        for (BigInteger next = power.multiply(child); next.compareTo(shifted) <= 0; next = next.multiply(child)) {
+            k++;
+        }
+        return k;
+    }
+
+    private static double log2(BigInteger x) {
+        int shift = Math.max(0, x.bitLength() - 53);
+        return Math.log(x.shiftRight(shift).doubleValue()) / Math.log(2) + shift;
+    }
+
+    private void renderDigits(Component[] parts, BigInteger index, Appendable out, boolean newlines)
+            throws IOException {
+        BigInteger[] digits = new BigInteger[parts.length];
+        for (int i = parts.length - 1; i >= 0; i--) {
+            BigInteger[] qr = index.divideAndRemainder(this.sizes.get(parts[i]));
+            digits[i] = qr[1];
+            index = qr[0];
+        }
+        for (int i = 0; i < parts.length; i++) {
+            render(parts[i], digits[i], out);
+            if (newlines) {
+                out.append('\n');
+            }
+        }
+    }
+}
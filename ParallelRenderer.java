@@ -0,0 +1,251 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Renders large Component trees on a ForkJoinPool.
+ *
+ * <p>Wide {@link Composite} and {@link Repeat} subtrees are split into
+ * fork-join tasks whose outputs are joined back in document order. Subtrees
+ * whose estimated cost stays below the threshold are rendered sequentially
+ * on the current thread.</p>
+ *
+ * <p>The output is identical to {@link Component#render(Appendable, GenerationContext)}
+ * for the same context: split contexts are handed out in the same order as
+ * the sequential render, so every subtree draws from the same stream no
+ * matter which thread renders it. The tree must not be mutated while it is
+ * rendered; frozen trees are safe.</p>
+ *
+ * <p>Constrained choices (see {@link VerticalComposite#isConstrained()})
+ * depend on the order of draws across the whole render, so trees that
+ * contain them are rendered sequentially.</p>
+ */
+public class ParallelRenderer {
+
+    /** Default minimum cost of a subtree rendered as its own task */
+    public static final long DEFAULT_THRESHOLD = 1024;
+
+    /** Pool the render tasks run on */
+    private final ForkJoinPool pool;
+
+    /** Minimum estimated cost of a subtree rendered as its own task */
+    private final long threshold;
+
+    /**
+     * Creates a renderer on the common pool with the default threshold.
+     */
+    public ParallelRenderer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a renderer on the given pool.
+     *
+     * @param pool      pool the render tasks run on
+     * @param threshold minimum estimated cost (roughly the number of nodes
+     *                  visited) of a subtree rendered as its own task
+     */
+    public ParallelRenderer(ForkJoinPool pool, long threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Renders a tree, splitting costly subtrees into parallel tasks.
+     *
+     * @param root tree to render
+     * @param out  destination of the rendered text
+     * @param ctx  random state of the render
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(Component root, Appendable out, GenerationContext ctx) throws IOException {
+        Metrics.Render timing = Metrics.startRender(out);
+        try {
+            Map<Component, Long> costs = new IdentityHashMap<>();
+            Map<Component, Boolean> purity = new IdentityHashMap<>();
+            if (cost(root, costs, purity) < this.threshold || constrained(root, new IdentityHashMap<>())) {
+                root.render(out, ctx);
+                return;
+            }
+            out.append(this.pool.invoke(new RenderTask(root, ctx, costs, purity)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            timing.stop();
+        }
+    }
+
+    /**
+     * Renders a tree into a String, splitting costly subtrees into parallel tasks.
+     *
+     * @param root tree to render
+     * @param ctx  random state of the render
+     * @return the rendered text
+     */
+    public String print(Component root, GenerationContext ctx) {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(root, out, ctx);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Estimates the cost of rendering a subtree as the number of nodes visited.
+     * Choices count their most expensive alternative; repeats of a pure
+     * component count it once since it is rendered only once.
+     */
+    private static long cost(Component c, Map<Component, Long> costs, Map<Component, Boolean> purity) {
+        Long known = costs.get(c);
+        if (known != null) {
+            return known;
+        }
+        long cost = 1;
+        if (c instanceof VerticalComposite) {
+            VerticalComposite v = (VerticalComposite) c;
+            long max = 0;
+            for (int i = 0; i < v.size(); i++) {
+                max = Math.max(max, cost(v.getChild(i), costs, purity));
+            }
+            cost = saturatedAdd(cost, max);
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            for (int i = 0; i < composite.size(); i++) {
+                cost = saturatedAdd(cost, cost(composite.getChild(i), costs, purity));
+            }
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            long child = cost(repeat.getComponent(), costs, purity);
+            boolean pure = Purity.isPure(repeat.getComponent(), purity);
+            int count = pure ? 1 : Math.max(1, repeat.getMaxCount());
+            cost = saturatedAdd(cost, child > Long.MAX_VALUE / count ? Long.MAX_VALUE : child * count);
+        }
+        costs.put(c, cost);
+        return cost;
+    }
+
+    /**
+     * Returns whether a subtree contains a constrained choice.
+     */
+    private static boolean constrained(Component c, Map<Component, Boolean> visited) {
+        if (visited.put(c, Boolean.TRUE) != null) {
+            return false;
+        }
+        if (c instanceof VerticalComposite && ((VerticalComposite) c).isConstrained()) {
+            return true;
+        }
+        if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            for (int i = 0; i < composite.size(); i++) {
+                if (constrained(composite.getChild(i), visited)) {
+                    return true;
+                }
+            }
+        } else if (c instanceof Repeat) {
+            return constrained(((Repeat) c).getComponent(), visited);
+        }
+        return false;
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Renders one subtree into its own buffer, forking costly children.
+     */
+    private final class RenderTask extends RecursiveTask<StringBuilder> {
+
+        private final Component component;
+        private final GenerationContext ctx;
+        private final Map<Component, Long> costs;
+        private final Map<Component, Boolean> purity;
+
+        RenderTask(Component component, GenerationContext ctx, Map<Component, Long> costs,
+                   Map<Component, Boolean> purity) {
+            this.component = component;
+            this.ctx = ctx;
+            this.costs = costs;
+            this.purity = purity;
+        }
+
+        @Override
+        protected StringBuilder compute() {
+            StringBuilder out = new StringBuilder();
+            try {
+                renderInto(this.component, this.ctx, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out;
+        }
+
+        /**
+         * Mirrors the sequential render of each node type, replacing the
+         * rendering of costly children by forked tasks.
+         */
+        private void renderInto(Component c, GenerationContext ctx, StringBuilder out) throws IOException {
+            if (this.costs.get(c) < threshold) {
+                c.render(out, ctx);
+            } else if (c instanceof VerticalComposite) {
+                VerticalComposite v = (VerticalComposite) c;
+                if (v.size() > 0) {
+                    renderInto(v.getChild(v.choose(ctx)), ctx, out);
+                }
+            } else if (c instanceof Composite) {
+                Composite composite = (Composite) c;
+                Component[] children = new Component[composite.size()];
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = composite.getChild(i);
+                }
+                renderParts(children, ctx, out, true);
+            } else if (c instanceof Repeat) {
+                Repeat repeat = (Repeat) c;
+                if (this.purity.get(repeat.getComponent())) {
+                    // Repeat.render already renders a pure child only once
+                    repeat.render(out, ctx);
+                } else {
+                    Component[] parts = new Component[repeat.drawCount(ctx)];
+                    Arrays.fill(parts, repeat.getComponent());
+                    renderParts(parts, ctx, out, false);
+                }
+            } else {
+                c.render(out, ctx);
+            }
+        }
+
+        /**
+         * Renders a sequence of parts with their own split contexts, forking
+         * the costly ones first and joining their output in order.
+         */
+        private void renderParts(Component[] parts, GenerationContext ctx, StringBuilder out,
+                                 boolean newlines) throws IOException {
+            GenerationContext[] contexts = new GenerationContext[parts.length];
+            RenderTask[] tasks = new RenderTask[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                contexts[i] = ctx.split();
+                if (this.costs.get(parts[i]) >= threshold) {
+                    tasks[i] = new RenderTask(parts[i], contexts[i], this.costs, this.purity);
+                    tasks[i].fork();
+                }
+            }
+            for (int i = 0; i < parts.length; i++) {
+                if (tasks[i] != null) {
+                    out.append(tasks[i].join());
+                } else {
+                    parts[i].render(out, contexts[i]);
+                }
+                if (newlines) {
+                    out.append('\n');
+                }
+            }
+        }
+    }
+}
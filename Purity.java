@@ -0,0 +1,92 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Decides which subtrees of a Component tree are pure, i.e. render the same
+ * text for every GenerationContext.
+ *
+ * <p>A subtree is pure if it has no VerticalComposite with more than one
+ * alternative and no Repeat with a count range below it. Components of
+ * unknown type are treated as impure.</p>
+ *
+ * <p>Tracked components remember their purity until their subtree changes,
+ * see {@link TrackedComponent#isPure()}; frozen trees are analysed once,
+ * when they are frozen.</p>
+ */
+final class Purity {
+
+    private Purity() {
+    }
+
+    /**
+     * Returns whether a subtree renders the same text for every context.
+     * Tracked components answer from their remembered purity.
+     *
+     * @param c root of the subtree
+     * @return true if the subtree is pure
+     */
+    static boolean isPure(Component c) {
+        if (c instanceof TrackedComponent) {
+            return ((TrackedComponent) c).isPure();
+        }
+        return isPure(c, new IdentityHashMap<>());
+    }
+
+    /**
+     * Decides the purity of a tracked component from the remembered purity
+     * of its children.
+     *
+     * @param c the component
+     * @return true if its subtree is pure
+     */
+    static boolean analyse(TrackedComponent c) {
+        if (c instanceof StringComponent) {
+            return true;
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            boolean pure = !(c instanceof VerticalComposite) || composite.size() <= 1;
+            for (int i = 0; pure && i < composite.size(); i++) {
+                pure = isPure(composite.getChild(i));
+            }
+            return pure;
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            return repeat.isFixed() && isPure(repeat.getComponent());
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a subtree renders the same text for every context,
+     * recording the result of every visited node in {@code memo}. Shared
+     * subtrees are analysed only once.
+     *
+     * @param c    root of the subtree
+     * @param memo purity of nodes analysed so far, keyed by identity
+     * @return true if the subtree is pure
+     */
+    static boolean isPure(Component c, Map<Component, Boolean> memo) {
+        Boolean known = memo.get(c);
+        if (known != null) {
+            return known;
+        }
+        boolean pure;
+        if (c instanceof StringComponent || c instanceof FileRegionComponent) {
+            pure = true;
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            pure = !(c instanceof VerticalComposite) || composite.size() <= 1;
+            for (int i = 0; i < composite.size(); i++) {
+                // Visit every child so that the memo covers the whole subtree
+                pure &= isPure(composite.getChild(i), memo);
+            }
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            pure = isPure(repeat.getComponent(), memo) && repeat.isFixed();
+        } else {
+            pure = false;
+        }
+        memo.put(c, pure);
+        return pure;
+    }
+}
@@ -0,0 +1,554 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Component tree compiled into a flat instruction array.
+ *
+ * <p>Rendering a plan is a loop over an int array that copies entries of
+ * a shared pool of literals to the output. It allocates nothing per pure
+ * node. The output equals {@code root.render(out, new GenerationContext(seed))}
+ * for every seed. To get there, the interpreter splits and draws from
+ * GenerationContexts with the same calls in the same order as the render
+ * methods of the components. It never derives random numbers itself, so
+ * plans stay equivalent whatever algorithm the JDK's
+ * {@link java.util.SplittableRandom} uses.</p>
+ *
+ * <p>Pure subtrees are lowered to literals at compile time. Their text is
+ * merged with adjacent literals. The random stream is only touched by
+ * choices, range repeats and the splits that lead to them. The plan is a
+ * snapshot: changes to the tree after compiling are not seen.
+ * FileRegionComponents stay lazy and are rendered from their file each
+ * time.</p>
+ *
+ * <p>Weighted choices draw from the alias tables of their composites.
+ * Choices with a history depend on earlier draws and cannot be compiled.
+ * Plans render outside of any {@link VariantBatch}, so batch-sampled
+ * choices draw as usual.</p>
+ *
+ * <p>Shared subtrees are compiled once per occurrence. Plans are immutable
+ * and may be rendered by several threads at once.</p>
+ */
+public final class RenderPlan {
+
+    /** {@code LIT index}: appends a literal of the pool */
+    private static final int LIT = 0;
+
+    /** {@code LEAF index}: renders a leaf component that is kept lazy */
+    private static final int LEAF = 1;
+
+    /** {@code SPLIT}: pushes a stream split off the current one */
+    private static final int SPLIT = 2;
+
+    /** {@code POP}: returns to the enclosing stream */
+    private static final int POP = 3;
+
+    /** {@code SKIP n}: advances the current stream past n splits */
+    private static final int SKIP = 4;
+
+    /** {@code CHOOSE k target...}: jumps to one of k targets drawn uniformly */
+    private static final int CHOOSE = 5;
+
+    /** {@code JUMP target} */
+    private static final int JUMP = 6;
+
+    /**
+     * {@code LOOP min max exit split}: starts a loop, drawing its count if
+     * min &lt; max; with split set, every iteration runs in a stream split
+     * off the current one
+     */
+    private static final int LOOP = 7;
+
+    /** {@code NEXT body split}: jumps back to the loop body until its count is used up */
+    private static final int NEXT = 8;
+
+    /** {@code PICK k index...}: appends one of k literals drawn uniformly */
+    private static final int PICK = 9;
+
+    /** {@code ALIAS k table target...}: jumps to one of k targets drawn from an alias table */
+    private static final int ALIAS = 10;
+
+    /** {@code DRAW bound doubles}: draws an int below bound unless it is 0, then doubles doubles */
+    private static final int DRAW = 11;
+
+    /** Context handed to lazy leaves, which make no random choices */
+    private static final GenerationContext LEAF_CONTEXT = new GenerationContext(0);
+
+    /** Instructions */
+    private final int[] code;
+
+    /** Distinct literals, kept as Strings so that appending them is a plain array copy */
+    private final String[] pool;
+
+    /** Leaves rendered through their own render method */
+    private final Component[] leaves;
+
+    /** Alias tables of weighted choices */
+    private final double[][] probabilities;
+    private final int[][] aliases;
+
+    /** Deepest nesting of split streams */
+    private final int maxDepth;
+
+    /** Deepest nesting of loops */
+    private final int maxLoops;
+
+    private RenderPlan(Compiler compiler) {
+        this.code = Arrays.copyOf(compiler.code, compiler.length);
+        this.pool = compiler.pool.toArray(new String[0]);
+        this.leaves = compiler.leaves.toArray(new Component[0]);
+        this.probabilities = compiler.probabilities.toArray(new double[0][]);
+        this.aliases = compiler.aliases.toArray(new int[0][]);
+        this.maxDepth = compiler.maxDepth;
+        this.maxLoops = compiler.maxLoops;
+    }
+
+    /**
+     * Compiles a tree of Composites, VerticalComposites, Repeats and leaf
+     * components.
+     *
+     * @param root root of the tree
+     * @return plan rendering the tree
+     * @throws IllegalArgumentException if the tree contains impure components
+     *                                  of other types, such as LilyPond, or
+     *                                  choices with a history
+     */
+    public static RenderPlan compile(Component root) {
+        Compiler compiler = new Compiler();
+        compiler.compile(root);
+        compiler.flush();
+        return new RenderPlan(compiler);
+    }
+
+    /**
+     * Returns the number of ints in the instruction array.
+     *
+     * @return code size
+     */
+    public int getCodeSize() {
+        return this.code.length;
+    }
+
+    /**
+     * Returns the number of distinct literals.
+     *
+     * @return pool size
+     */
+    public int getPoolSize() {
+        return this.pool.length;
+    }
+
+    /**
+     * Renders the tree for the given seed.
+     *
+     * @param seed seed of the root context
+     * @param out  destination of the rendered text
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(long seed, Appendable out) throws IOException {
+        Metrics.Render timing = Metrics.startRender(out);
+        try {
+            execute(seed, out);
+        } finally {
+            timing.stop();
+        }
+    }
+
+    private void execute(long seed, Appendable out) throws IOException {
+        final int[] code = this.code;
+        final String[] pool = this.pool;
+
+        // The current stream lives in a local, the enclosing ones on the stack
+        GenerationContext ctx = new GenerationContext(seed);
+        GenerationContext[] contexts = new GenerationContext[this.maxDepth];
+        int sp = 0;
+        int[] counts = new int[this.maxLoops];
+        int lp = -1;
+
+        StringBuilder builder = out instanceof StringBuilder ? (StringBuilder) out : null;
+        Writer writer = out instanceof Writer ? (Writer) out : null;
+
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case LIT: {
+                    String literal = pool[code[pc + 1]];
+                    if (builder != null) {
+                        builder.append(literal);
+                    } else if (writer != null) {
+                        writer.write(literal);
+                    } else {
+                        out.append(literal);
+                    }
+                    pc += 2;
+                    break;
+                }
+                case LEAF:
+                    this.leaves[code[pc + 1]].render(out, LEAF_CONTEXT);
+                    pc += 2;
+                    break;
+                case SPLIT:
+                    contexts[sp++] = ctx;
+                    ctx = ctx.split();
+                    pc++;
+                    break;
+                case POP:
+                    ctx = contexts[--sp];
+                    pc++;
+                    break;
+                case SKIP:
+                    ctx.skipSplits(code[pc + 1]);
+                    pc += 2;
+                    break;
+                case CHOOSE:
+                    pc = code[pc + 2 + ctx.nextInt(code[pc + 1])];
+                    break;
+                case PICK: {
+                    int k = code[pc + 1];
+                    String literal = pool[code[pc + 2 + ctx.nextInt(k)]];
+                    if (builder != null) {
+                        builder.append(literal);
+                    } else if (writer != null) {
+                        writer.write(literal);
+                    } else {
+                        out.append(literal);
+                    }
+                    pc += 2 + k;
+                    break;
+                }
+                case LOOP: {
+                    int min = code[pc + 1];
+                    int max = code[pc + 2];
+                    int count = min == max ? min : min + ctx.nextInt(max - min + 1);
+                    if (count == 0) {
+                        pc = code[pc + 3];
+                        break;
+                    }
+                    counts[++lp] = count;
+                    boolean split = code[pc + 4] != 0;
+                    pc += 5;
+                    if (split) {
+                        contexts[sp++] = ctx;
+                        ctx = ctx.split();
+                    }
+                    break;
+                }
+                case ALIAS: {
+                    // The draws of VerticalComposite.choose
+                    int i = ctx.nextInt(code[pc + 1]);
+                    int table = code[pc + 2];
+                    double u = ctx.nextDouble();
+                    pc = code[pc + 3 + (u < this.probabilities[table][i] ? i : this.aliases[table][i])];
+                    break;
+                }
+                case DRAW:
+                    if (code[pc + 1] > 0) {
+                        ctx.nextInt(code[pc + 1]);
+                    }
+                    for (int i = code[pc + 2]; i > 0; i--) {
+                        ctx.nextDouble();
+                    }
+                    pc += 3;
+                    break;
+                case JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case NEXT: {
+                    boolean split = code[pc + 2] != 0;
+                    if (split) {
+                        ctx = contexts[--sp];
+                    }
+                    if (--counts[lp] == 0) {
+                        lp--;
+                        pc += 3;
+                        break;
+                    }
+                    pc = code[pc + 1];
+                    if (split) {
+                        contexts[sp++] = ctx;
+                        ctx = ctx.split();
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Bad instruction " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+     * Renders the tree for the given seed into a String.
+     *
+     * @param seed seed of the root context
+     * @return rendered text
+     */
+    public String print(long seed) {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(seed, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Lowers a tree into instructions. Mirrors the render methods of the
+     * component classes step by step.
+     */
+    private static final class Compiler {
+
+        private int[] code = new int[64];
+        private int length;
+
+        private final List<String> pool = new ArrayList<>();
+        private final Map<String, Integer> literals = new HashMap<>();
+        private final List<Component> leaves = new ArrayList<>();
+        private final List<double[]> probabilities = new ArrayList<>();
+        private final List<int[]> aliases = new ArrayList<>();
+
+        /** Text not yet emitted as a LIT instruction */
+        private final StringBuilder pending = new StringBuilder();
+
+        private final Map<Component, Boolean> purity = new IdentityHashMap<>();
+        private final Map<Component, String> texts = new IdentityHashMap<>();
+
+        private int depth;
+        private int maxDepth;
+        private int loops;
+        private int maxLoops;
+
+        /**
+         * Compiles a subtree rendered with the stream on top of the stack.
+         */
+        void compile(Component c) {
+            if (Purity.isPure(c, this.purity)) {
+                compilePure(c);
+            } else if (c instanceof VerticalComposite) {
+                VerticalComposite v = (VerticalComposite) c;
+                if (v.size() == 1) {
+                    // The draw of the only child still advances the stream the child continues,
+                    // see VerticalComposite.choose and chooseAvoiding
+                    if (v.isUniform()) {
+                        emit(DRAW, 1, 0);
+                    } else {
+                        emit(DRAW, v.getHistory() == 0 ? 1 : 0, 1);
+                    }
+                    compile(v.getChild(0));
+                    return;
+                }
+                if (v.getHistory() > 0) {
+                    throw new IllegalArgumentException("Cannot compile choices with a history");
+                }
+                flush();
+                if (v.isUniform() && picks(v)) {
+                    emit(PICK, v.size());
+                    for (int i = 0; i < v.size(); i++) {
+                        emit(literal(text(v.getChild(i))));
+                    }
+                    return;
+                }
+                int choose;
+                if (v.isUniform()) {
+                    choose = emit(CHOOSE, v.size());
+                } else {
+                    // The table operand shifts the targets by one slot
+                    choose = emit(ALIAS, v.size(), this.probabilities.size()) + 1;
+                    this.probabilities.add(v.aliasProbabilities());
+                    this.aliases.add(v.aliasIndices());
+                }
+                for (int i = 0; i < v.size(); i++) {
+                    emit(-1);
+                }
+                int[] exits = new int[v.size() - 1];
+                for (int i = 0; i < v.size(); i++) {
+                    this.code[choose + 2 + i] = this.length;
+                    compile(v.getChild(i));
+                    flush();
+                    if (i < exits.length) {
+                        exits[i] = emit(JUMP, -1);
+                    }
+                }
+                for (int exit : exits) {
+                    this.code[exit + 1] = this.length;
+                }
+            } else if (c instanceof Composite) {
+                Composite composite = (Composite) c;
+                int skipped = 0;
+                for (int i = 0; i < composite.size(); i++) {
+                    Component child = composite.getChild(i);
+                    if (Purity.isPure(child, this.purity)) {
+                        // Its split only matters to the streams of later siblings
+                        skipped++;
+                        compilePure(child);
+                    } else {
+                        if (skipped > 0) {
+                            emit(SKIP, skipped);
+                            skipped = 0;
+                        }
+                        split();
+                        compile(child);
+                        pop();
+                    }
+                    this.pending.append('\n');
+                }
+            } else if (c instanceof Repeat) {
+                Repeat repeat = (Repeat) c;
+                Component child = repeat.getComponent();
+                boolean pure = Purity.isPure(child, this.purity);
+                loop(repeat.getMinCount(), repeat.getMaxCount(), !pure, () -> {
+                    if (pure) {
+                        compilePure(child);
+                    } else {
+                        compile(child);
+                    }
+                });
+            } else {
+                throw new IllegalArgumentException("Cannot compile " + c.getClass().getName());
+            }
+        }
+
+        /**
+         * Compiles a pure subtree, which makes no random choices.
+         */
+        private void compilePure(Component c) {
+            String text = text(c);
+            if (text != null) {
+                this.pending.append(text);
+            } else if (c instanceof FileRegionComponent) {
+                flush();
+                emit(LEAF, this.leaves.size());
+                this.leaves.add(c);
+            } else if (c instanceof VerticalComposite) {
+                compilePure(((VerticalComposite) c).getChild(0));
+            } else if (c instanceof Composite) {
+                Composite composite = (Composite) c;
+                for (int i = 0; i < composite.size(); i++) {
+                    compilePure(composite.getChild(i));
+                    this.pending.append('\n');
+                }
+            } else {
+                Repeat repeat = (Repeat) c;
+                loop(repeat.getMinCount(), repeat.getMaxCount(), false, () -> compilePure(repeat.getComponent()));
+            }
+        }
+
+        /**
+         * Returns the text of a pure subtree, or null if it contains lazy
+         * leaves.
+         */
+        private String text(Component c) {
+            if (this.texts.containsKey(c)) {
+                return this.texts.get(c);
+            }
+            String text;
+            if (c instanceof FileRegionComponent) {
+                text = null;
+            } else if (c instanceof VerticalComposite) {
+                VerticalComposite v = (VerticalComposite) c;
+                text = v.size() == 0 ? "" : text(v.getChild(0));
+            } else if (c instanceof Composite) {
+                Composite composite = (Composite) c;
+                StringBuilder joined = new StringBuilder();
+                for (int i = 0; i < composite.size() && joined != null; i++) {
+                    String child = text(composite.getChild(i));
+                    joined = child == null ? null : joined.append(child).append('\n');
+                }
+                text = joined == null ? null : joined.toString();
+            } else if (c instanceof Repeat) {
+                Repeat repeat = (Repeat) c;
+                String child = text(repeat.getComponent());
+                text = child == null ? null : child.repeat(repeat.getMinCount());
+            } else {
+                text = c.print(LEAF_CONTEXT);
+            }
+            this.texts.put(c, text);
+            return text;
+        }
+
+        private void loop(int min, int max, boolean split, Runnable body) {
+            flush();
+            int loop = emit(LOOP, min, max, -1, split ? 1 : 0);
+            int start = this.length;
+            this.maxLoops = Math.max(this.maxLoops, ++this.loops);
+            if (split) {
+                this.maxDepth = Math.max(this.maxDepth, ++this.depth);
+            }
+            body.run();
+            flush();
+            emit(NEXT, start, split ? 1 : 0);
+            if (split) {
+                this.depth--;
+            }
+            this.loops--;
+            this.code[loop + 3] = this.length;
+        }
+
+        /**
+         * Returns whether every alternative of a choice is plain text.
+         */
+        private boolean picks(VerticalComposite v) {
+            for (int i = 0; i < v.size(); i++) {
+                if (!Purity.isPure(v.getChild(i), this.purity) || text(v.getChild(i)) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void split() {
+            emit(SPLIT);
+            this.maxDepth = Math.max(this.maxDepth, ++this.depth);
+        }
+
+        private void pop() {
+            emit(POP);
+            this.depth--;
+        }
+
+        /**
+         * Emits the pending text as one literal. Stream operations need no
+         * flush since they produce no output.
+         */
+        void flush() {
+            if (this.pending.length() == 0) {
+                return;
+            }
+            String text = this.pending.toString();
+            this.pending.setLength(0);
+            emit(LIT, literal(text));
+        }
+
+        /**
+         * Returns the pool index of a literal, adding it if new.
+         */
+        private int literal(String text) {
+            Integer index = this.literals.get(text);
+            if (index == null) {
+                index = this.pool.size();
+                this.pool.add(text);
+                this.literals.put(text, index);
+            }
+            return index;
+        }
+
+        /**
+         * Appends an instruction and returns its position.
+         */
+        private int emit(int... ints) {
+            int at = this.length;
+            if (at + ints.length > this.code.length) {
+                this.code = Arrays.copyOf(this.code, Math.max(2 * this.code.length, at + ints.length));
+            }
+            System.arraycopy(ints, 0, this.code, at, ints.length);
+            this.length += ints.length;
+            return at;
+        }
+    }
+}
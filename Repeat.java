@@ -1,31 +1,152 @@
+import java.io.IOException;
+
 /**
  * Repeat is a Component decorator that repeats another Component
- * a fixed number of times during rendering.
+ * during rendering, either a fixed number of times or a number of times
+ * drawn uniformly from a range (Kleene star style sampling).
+ *
+ * <p>If the wrapped component is pure (see {@link Purity}) it is rendered
+ * only once per render call and its text is copied to the output for every
+ * repetition. Its purity is remembered until it changes, so nested repeats
+ * do not analyse their subtrees on every render.</p>
  */
-public class Repeat implements Component {
+public class Repeat extends TrackedComponent {
+
+    /** Number of repetitions when no count is given */
+    static final int DEFAULT_COUNT = 32;
 
     /** The wrapped component to be repeated */
     Component component;
 
+    /** Smallest number of repetitions */
+    private final int minCount;
+
+    /** Largest number of repetitions */
+    private final int maxCount;
+
     /**
-     * Creates a Repeat wrapper around a component.
+     * Creates a Repeat wrapper that renders a component {@value #DEFAULT_COUNT} times.
      *
      * @param _component Component to repeat
      */
     public Repeat(Component _component) {
+        this(_component, DEFAULT_COUNT);
+    }
+
+    /**
+     * Creates a Repeat wrapper that renders a component a fixed number of times.
+     *
+     * @param _component Component to repeat
+     * @param count      number of repetitions
+     */
+    public Repeat(Component _component, int count) {
+        this(_component, count, count);
+    }
+
+    /**
+     * Creates a Repeat wrapper that renders a component a number of times
+     * drawn uniformly from {@code [minCount, maxCount]}.
+     *
+     * @param _component Component to repeat
+     * @param minCount   smallest number of repetitions
+     * @param maxCount   largest number of repetitions
+     * @throws IllegalArgumentException if the range is empty or negative
+     */
+    public Repeat(Component _component, int minCount, int maxCount) {
+        if (minCount < 0 || maxCount < minCount) {
+            throw new IllegalArgumentException("Invalid repeat range " + minCount + "-" + maxCount);
+        }
         this.component = _component;
+        this.minCount = minCount;
+        this.maxCount = maxCount;
+        attach(_component, this);
+    }
+
+    /**
+     * Returns the wrapped component.
+     *
+     * @return the repeated component
+     */
+    public Component getComponent() {
+        return this.component;
+    }
+
+    /**
+     * Returns the smallest number of repetitions.
+     *
+     * @return the minimum repeat count
+     */
+    public int getMinCount() {
+        return this.minCount;
+    }
+
+    /**
+     * Returns the largest number of repetitions.
+     *
+     * @return the maximum repeat count
+     */
+    public int getMaxCount() {
+        return this.maxCount;
+    }
+
+    /**
+     * Returns whether the number of repetitions is fixed.
+     *
+     * @return true if the minimum and maximum count are equal
+     */
+    public boolean isFixed() {
+        return this.minCount == this.maxCount;
+    }
+
+    /**
+     * Draws the number of repetitions of one render from {@code ctx}.
+     * Fixed counts draw nothing.
+     *
+     * @param ctx random state of this subtree
+     * @return the repeat count
+     */
+    public int drawCount(GenerationContext ctx) {
+        return isFixed() ? this.minCount : this.minCount + ctx.nextInt(this.maxCount - this.minCount + 1);
     }
 
     /**
-     * Prints the wrapped component multiple times.
+     * Freezes the wrapped component and analyses its purity.
+     */
+    @Override
+    public void freeze() {
+        component.freeze();
+        frozen();
+    }
+
+    /**
+     * Renders the wrapped component multiple times. A pure component is
+     * rendered once and its text copied; otherwise every repetition gets its
+     * own split of {@code ctx}. A pure repeat is served from the context's
+     * cache if it has one.
      *
-     * @return Concatenated output of repeated component
+     * @param out destination of the rendered text
+     * @param ctx random state of this subtree
+     * @throws IOException if writing to {@code out} fails
      */
-    public String print() {
-        StringBuilder content = new StringBuilder();
-        for (int i = 0; i < 32; i++) {
-            content.append(component.print());
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        SubtreeCache cache = ctx.getCache();
+        if (cache != null && cache.render(this, out)) {
+            return;
+        }
+        int count = drawCount(ctx);
+        if (count == 0) {
+            return;
+        }
+        if (Purity.isPure(component)) {
+            StringBuilder once = new StringBuilder();
+            component.render(once, ctx);
+            for (int i = 0; i < count; i++) {
+                out.append(once);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                component.render(out, ctx.split());
+            }
         }
-        return content.toString();
     }
 }
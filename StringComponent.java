@@ -1,11 +1,19 @@
+import java.io.IOException;
+
 /**
  * Leaf component that represents plain string content.
+ *
+ * <p>Once frozen, for example as part of a frozen tree, the content can no
+ * longer be changed.</p>
  */
-public class StringComponent implements Component {
+public class StringComponent extends TrackedComponent {
 
     /** Stored string content */
     private String content;
 
+    /** Whether the content can no longer be changed */
+    private boolean frozen;
+
     /**
      * Creates a new StringComponent with the given content.
      *
@@ -15,12 +23,24 @@ public class StringComponent implements Component {
         this.content = content;
     }
 
+    /**
+     * Writes the stored string content.
+     *
+     * @param out destination of the rendered text
+     * @param ctx unused, leaves make no random choices
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        out.append(this.content);
+    }
+
     /**
      * Returns the stored string content.
      *
      * @return the content as a string
      */
-    public String print() {
+    @Override
+    public String print(GenerationContext ctx) {
         return this.content;
     }
 
@@ -28,8 +48,24 @@ public class StringComponent implements Component {
      * Updates the stored string content.
      *
      * @param c the new content
+     * @throws UnsupportedOperationException if this component is frozen
      */
     public void setContent(String c) {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("StringComponent is frozen");
+        }
         this.content = c;
+        changed();
+    }
+
+    /**
+     * Rejects further changes of the content.
+     */
+    @Override
+    public void freeze() {
+        if (!this.frozen) {
+            this.frozen = true;
+            frozen();
+        }
     }
 }
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Size-bounded cache of the rendered text of pure subtrees.
+ *
+ * <p>A cache is attached to a render through
+ * {@link GenerationContext#withCache(SubtreeCache)}. Composites and repeats
+ * then ask the cache before rendering themselves: a pure subtree (see
+ * {@link Purity}) is rendered once and served from the cache afterwards,
+ * including inside every repetition of a Repeat and across renders.</p>
+ *
+ * <p>Purity is analysed once per node and remembered by the node itself;
+ * frozen trees are analysed when they are frozen. Every entry records the
+ * {@link TrackedComponent#revision() revision} of its subtree, which a
+ * structural or content mutation ({@link Composite#add}, {@link Composite#remove},
+ * {@link StringComponent#setContent}) changes for the mutated node and its
+ * ancestors only. An entry whose subtree has changed since is rendered
+ * again; entries of frozen trees stay valid. Entries are evicted in
+ * least-recently-used order once their size exceeds the configured number
+ * of characters. Each entry counts {@value #ENTRY_OVERHEAD} characters on
+ * top of its text, so subtrees rendering to nothing cannot pile up.</p>
+ *
+ * <p>The cache only holds its subtrees weakly. A subtree that was removed
+ * from its tree, or a tree that is no longer used, can be collected, and
+ * its entry is dropped on a later lookup.</p>
+ *
+ * <p>A cache is thread-safe and may be shared by parallel renders.</p>
+ */
+public class SubtreeCache {
+
+    /** Default bound on the number of cached characters */
+    public static final long DEFAULT_MAX_CHARS = 16L * 1024 * 1024;
+
+    /** Characters an entry counts in addition to its text */
+    public static final int ENTRY_OVERHEAD = 64;
+
+    /** Bound on the size of the entries */
+    private final long maxChars;
+
+    /** Rendered text of pure subtrees in least-recently-used order */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Keys whose subtree has been collected */
+    private final ReferenceQueue<Component> collected = new ReferenceQueue<>();
+
+    /** Size of the entries in characters, overhead included */
+    private long chars;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache bounded by {@value #DEFAULT_MAX_CHARS} characters.
+     */
+    public SubtreeCache() {
+        this(DEFAULT_MAX_CHARS);
+    }
+
+    /**
+     * Creates a cache bounded by the given number of characters.
+     *
+     * @param maxChars bound on the size of the entries, {@value #ENTRY_OVERHEAD}
+     *                 characters per entry included
+     */
+    public SubtreeCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /** Weak reference to a subtree, equal to the keys of the same subtree */
+    private static final class Key extends WeakReference<Component> {
+        private final int hash;
+
+        Key(Component c, ReferenceQueue<Component> queue) {
+            super(c, queue);
+            this.hash = System.identityHashCode(c);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Component c = get();
+            return c != null && c == ((Key) o).get();
+        }
+    }
+
+    /** Rendered text of a subtree at one of its revisions */
+    private static final class Entry {
+        final String text;
+        final int revision;
+
+        Entry(String text, int revision) {
+            this.text = text;
+            this.revision = revision;
+        }
+
+        long size() {
+            return this.text.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Writes the cached text of a pure subtree to {@code out}, rendering and
+     * caching it first on a miss. Impure subtrees are left to the caller.
+     *
+     * @param c   root of the subtree
+     * @param out destination of the rendered text
+     * @return true if the subtree was written, false if it is impure
+     * @throws IOException if writing to {@code out} fails
+     */
+    boolean render(TrackedComponent c, Appendable out) throws IOException {
+        if (!c.isPure()) {
+            return false;
+        }
+        int revision = c.revision();
+        String text = null;
+        synchronized (this) {
+            expunge();
+            Entry entry = this.entries.get(new Key(c, null));
+            if (entry != null && entry.revision == revision) {
+                text = entry.text;
+                this.hits++;
+            } else {
+                this.misses++;
+            }
+        }
+        if (text == null) {
+            Metrics.count(Metrics.Count.SUBTREE_CACHE_MISSES, 1);
+            // Render outside the lock; any context renders a pure subtree to the same text.
+            // Rendered as part of the enclosing render, not printed on its own
+            StringBuilder rendered = new StringBuilder();
+            c.render(rendered, new GenerationContext(0));
+            text = rendered.toString();
+            put(c, new Entry(text, revision));
+        } else {
+            Metrics.count(Metrics.Count.SUBTREE_CACHE_HITS, 1);
+        }
+        out.append(text);
+        return true;
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return number of hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to render the subtree.
+     *
+     * @return number of misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Returns the size of the cached entries, counting
+     * {@value #ENTRY_OVERHEAD} characters per entry on top of its text.
+     *
+     * @return cached characters
+     */
+    public synchronized long getChars() {
+        expunge();
+        return this.chars;
+    }
+
+    /**
+     * Returns the number of cached subtrees.
+     *
+     * @return number of entries
+     */
+    public synchronized int getEntries() {
+        expunge();
+        return this.entries.size();
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.chars = 0;
+        while (this.collected.poll() != null) {
+            // Their entries are gone already
+        }
+    }
+
+    private synchronized void put(Component c, Entry entry) {
+        expunge();
+        if (entry.size() > this.maxChars) {
+            Entry stale = this.entries.remove(new Key(c, null));
+            if (stale != null) {
+                this.chars -= stale.size();
+            }
+            return;
+        }
+        Entry previous = this.entries.put(new Key(c, this.collected), entry);
+        if (previous != null) {
+            this.chars -= previous.size();
+        }
+        this.chars += entry.size();
+        Iterator<Entry> eldest = this.entries.values().iterator();
+        while (this.chars > this.maxChars) {
+            this.chars -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the entries of collected subtrees.
+     */
+    private void expunge() {
+        for (Reference<? extends Component> key; (key = this.collected.poll()) != null; ) {
+            Entry stale = this.entries.remove(key);
+            if (stale != null) {
+                this.chars -= stale.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ * Component whose changes are tracked by a revision number.
+ *
+ * <p>The revision changes whenever the component or one of its tracked
+ * descendants changes, so results derived from a subtree, such as its
+ * purity or its text in a {@link SubtreeCache}, stay valid for as long as
+ * the revision of its root is the same. To propagate changes upwards, an
+ * unfrozen component knows the parents it has been added to. Frozen
+ * components never change; they drop their parents and are not registered
+ * with new ones.</p>
+ *
+ * <p>Like the rest of an unfrozen tree, revisions are not thread-safe.
+ * Frozen trees only read them.</p>
+ */
+abstract class TrackedComponent implements Component {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte PURE = 1;
+    private static final byte IMPURE = 2;
+
+    /** Parents of a frozen component, which has none to notify */
+    private static final Object FROZEN = new Object();
+
+    /** Changes whenever this component or a tracked descendant changes */
+    private int revision;
+
+    /** Parents to notify of changes: null, one TrackedComponent, an array of them or {@link #FROZEN} */
+    private Object parents;
+
+    /** Purity of this subtree at {@link #purityRevision} */
+    private byte purity = UNKNOWN;
+    private int purityRevision;
+
+    /**
+     * Returns the current revision of this subtree.
+     *
+     * @return a number that differs from every earlier revision of this subtree
+     */
+    final int revision() {
+        return this.revision;
+    }
+
+    /**
+     * Records a change of this component and of all of its ancestors.
+     */
+    final void changed() {
+        this.revision++;
+        Object p = this.parents;
+        if (p instanceof TrackedComponent) {
+            ((TrackedComponent) p).changed();
+        } else if (p instanceof TrackedComponent[]) {
+            for (TrackedComponent parent : (TrackedComponent[]) p) {
+                parent.changed();
+            }
+        }
+    }
+
+    /**
+     * Returns whether this subtree renders the same text for every context.
+     * Analysed again only after the subtree has changed.
+     *
+     * @return true if the subtree is pure
+     * @see Purity
+     */
+    final boolean isPure() {
+        int current = this.revision;
+        if (this.purity == UNKNOWN || this.purityRevision != current) {
+            this.purity = Purity.analyse(this) ? PURE : IMPURE;
+            this.purityRevision = current;
+        }
+        return this.purity == PURE;
+    }
+
+    /**
+     * Stops tracking parents once this component can no longer change, and
+     * records its purity while the tree is still owned by one thread.
+     */
+    final void frozen() {
+        this.parents = FROZEN;
+        isPure();
+    }
+
+    /**
+     * Registers {@code parent} to be notified of changes of {@code child}.
+     * Untracked and frozen children never change and are not registered.
+     */
+    static void attach(Component child, TrackedComponent parent) {
+        if (!(child instanceof TrackedComponent)) {
+            return;
+        }
+        TrackedComponent c = (TrackedComponent) child;
+        Object p = c.parents;
+        if (p == FROZEN) {
+            return;
+        }
+        if (p == null) {
+            c.parents = parent;
+        } else if (p instanceof TrackedComponent) {
+            c.parents = new TrackedComponent[] { (TrackedComponent) p, parent };
+        } else {
+            TrackedComponent[] all = (TrackedComponent[]) p;
+            all = Arrays.copyOf(all, all.length + 1);
+            all[all.length - 1] = parent;
+            c.parents = all;
+        }
+    }
+
+    /**
+     * Removes one registration of {@code parent} from {@code child}.
+     */
+    static void detach(Component child, TrackedComponent parent) {
+        if (!(child instanceof TrackedComponent)) {
+            return;
+        }
+        TrackedComponent c = (TrackedComponent) child;
+        Object p = c.parents;
+        if (p == parent) {
+            c.parents = null;
+        } else if (p instanceof TrackedComponent[]) {
+            TrackedComponent[] all = (TrackedComponent[]) p;
+            for (int i = 0; i < all.length; i++) {
+                if (all[i] == parent) {
+                    TrackedComponent[] rest = new TrackedComponent[all.length - 1];
+                    System.arraycopy(all, 0, rest, 0, i);
+                    System.arraycopy(all, i + 1, rest, i, rest.length - i);
+                    c.parents = rest.length == 1 ? rest[0] : rest;
+                    return;
+                }
+            }
+        }
+    }
+}
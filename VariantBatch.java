@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A numbered set of variants rendered from the same tree, for example one
+ * exam per student.
+ *
+ * <p>Variant {@code i} is rendered with {@link #context(int)} and uses the
+ * same seed as {@code VariantGenerator.seeds(seed, size)[i]}.
+ * VerticalComposites with {@link VerticalComposite#setBatchSampling(boolean)
+ * batch sampling} do not draw independently per variant. Instead they deal
+ * their children to the variants from a shuffled deck: the k-th draw of
+ * variant i takes card {@code k * size + i}. As long as the batch is not
+ * larger than the composite, no two variants get the same child there. Each
+ * pass through the deck uses a new shuffle. Weighted children are dealt
+ * from a weighted shuffle, so heavier children tend to come first.</p>
+ *
+ * <p>Decks are derived from the batch seed and the position of the
+ * composite in the tree, so every variant can be rendered on its own, in
+ * any order and on any thread.</p>
+ */
+public final class VariantBatch {
+
+    /** Seed of the whole batch */
+    private final long seed;
+
+    /** Seeds of the variants */
+    private final long[] seeds;
+
+    /** Batch-sampled composites of the tree, numbered in document order */
+    private final Map<VerticalComposite, Integer> composites = new IdentityHashMap<>();
+
+    /** Per numbered composite, the indices of its children with a positive weight */
+    private final List<int[]> drawable = new ArrayList<>();
+
+    /** Shuffled decks, keyed by composite number and pass */
+    private final Map<Long, int[]> decks = new ConcurrentHashMap<>();
+
+    /**
+     * Prepares a batch of variants of a tree. The tree must not be mutated
+     * afterwards.
+     *
+     * @param root tree the variants are rendered from
+     * @param seed seed of the whole batch
+     * @param size number of variants
+     */
+    public VariantBatch(Component root, long seed, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative batch size " + size);
+        }
+        this.seed = seed;
+        this.seeds = VariantGenerator.seeds(seed, size);
+        number(root, new IdentityHashMap<>());
+    }
+
+    /**
+     * Returns the seed of the whole batch.
+     *
+     * @return batch seed
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns the number of variants.
+     *
+     * @return batch size
+     */
+    public int size() {
+        return this.seeds.length;
+    }
+
+    /**
+     * Returns the root context of a variant.
+     *
+     * @param variant index of the variant
+     * @return context to render the variant with
+     * @throws IndexOutOfBoundsException if {@code variant} is out of range
+     */
+    public GenerationContext context(int variant) {
+        return new GenerationContext(this.seeds[variant], this, variant);
+    }
+
+    /**
+     * Returns the child a variant draws from a batch-sampled composite.
+     *
+     * @param composite  composite drawn from
+     * @param variant    index of the variant
+     * @param occurrence number of earlier draws of the variant from the composite
+     * @return index of the dealt child
+     * @throws IllegalArgumentException if the composite is not part of the tree
+     * @throws IllegalStateException    if no child can be drawn
+     */
+    int deal(VerticalComposite composite, int variant, int occurrence) {
+        Integer number = this.composites.get(composite);
+        if (number == null) {
+            throw new IllegalArgumentException("Composite is not part of the batch's tree");
+        }
+        int[] order = this.drawable.get(number);
+        if (order.length == 0) {
+            throw new IllegalStateException("No child can be drawn, all weights are 0");
+        }
+        long card = (long) occurrence * this.seeds.length + variant;
+        long pass = card / order.length;
+        int[] deck = this.decks.computeIfAbsent((long) number << 32 | pass,
+            key -> shuffle(composite, order, number, pass));
+        return deck[(int) (card % order.length)];
+    }
+
+    /**
+     * Numbers the batch-sampled composites of a subtree in document order.
+     */
+    private void number(Component c, Map<Component, Boolean> visited) {
+        if (visited.put(c, Boolean.TRUE) != null) {
+            return;
+        }
+        if (c instanceof VerticalComposite && ((VerticalComposite) c).isBatchSampling()) {
+            this.composites.put((VerticalComposite) c, this.composites.size());
+            this.drawable.add(drawable((VerticalComposite) c));
+        }
+        if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            for (int i = 0; i < composite.size(); i++) {
+                number(composite.getChild(i), visited);
+            }
+        } else if (c instanceof Repeat) {
+            number(((Repeat) c).getComponent(), visited);
+        }
+    }
+
+    /**
+     * Returns the indices of the children with a positive weight.
+     */
+    private static int[] drawable(VerticalComposite composite) {
+        int[] order = new int[composite.size()];
+        int n = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (composite.getWeight(i) > 0) {
+                order[n++] = i;
+            }
+        }
+        return Arrays.copyOf(order, n);
+    }
+
+    /**
+     * Shuffles the drawable children for one pass through the deck: a
+     * Fisher-Yates shuffle for uniform children, otherwise an order by
+     * decreasing {@code log(u) / weight} (Efraimidis-Spirakis).
+     */
+    private int[] shuffle(VerticalComposite composite, int[] order, int number, long pass) {
+        SplittableRandom random = new SplittableRandom(
+            this.seed ^ 0x9e3779b97f4a7c15L * (number + 1) ^ 0xbf58476d1ce4e5b9L * (pass + 1));
+        int[] deck = order.clone();
+        if (composite.isUniform()) {
+            for (int i = deck.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = deck[i];
+                deck[i] = deck[j];
+                deck[j] = swap;
+            }
+            return deck;
+        }
+        double[] keys = new double[composite.size()];
+        Integer[] boxed = new Integer[deck.length];
+        for (int i = 0; i < deck.length; i++) {
+            boxed[i] = deck[i];
+            keys[deck[i]] = Math.log(1 - random.nextDouble()) / composite.getWeight(deck[i]);
+        }
+        Arrays.sort(boxed, (a, b) -> Double.compare(keys[b], keys[a]));
+        for (int i = 0; i < deck.length; i++) {
+            deck[i] = boxed[i];
+        }
+        return deck;
+    }
+}
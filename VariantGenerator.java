@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Generates many variants of the same Component tree.
+ *
+ * <p>On construction the tree is traversed once and every pure subtree
+ * (see {@link Purity}) is rendered a single time and replaced by its text.
+ * What remains is a residual tree that only contains the random choices and
+ * the literal text around them; every variant renders this residual tree
+ * instead of the original one, so fixed sections are never rendered twice.</p>
+ *
+ * <p>The residual tree consumes randomness exactly like the original, so
+ * {@link #generate(long)} returns the same text as
+ * {@code root.print(new GenerationContext(seed))}.</p>
+ */
+public class VariantGenerator {
+
+    /** Tree with every pure subtree replaced by its rendered text */
+    private final Component residual;
+
+    /**
+     * Prepares a tree for variant generation. The tree must not be mutated
+     * afterwards; later changes are not reflected in generated variants.
+     *
+     * @param root tree to generate variants of
+     */
+    public VariantGenerator(Component root) {
+        Map<Component, Boolean> purity = new IdentityHashMap<>();
+        Purity.isPure(root, purity);
+        this.residual = residual(root, purity, new IdentityHashMap<>());
+        this.residual.freeze();
+    }
+
+    /**
+     * Derives {@code count} variant seeds from a single batch seed.
+     *
+     * @param batchSeed seed of the whole batch
+     * @param count     number of variants
+     * @return one seed per variant
+     */
+    public static long[] seeds(long batchSeed, int count) {
+        SplittableRandom random = new SplittableRandom(batchSeed);
+        long[] seeds = new long[count];
+        for (int i = 0; i < count; i++) {
+            seeds[i] = random.nextLong();
+        }
+        return seeds;
+    }
+
+    /**
+     * Prepares a batch of variants of this generator's tree, see
+     * {@link VariantBatch}.
+     *
+     * @param batchSeed seed of the whole batch
+     * @param count     number of variants
+     * @return the batch
+     */
+    public VariantBatch batch(long batchSeed, int count) {
+        return new VariantBatch(this.residual, batchSeed, count);
+    }
+
+    /**
+     * Renders one variant of a batch prepared by {@link #batch(long, int)}.
+     *
+     * @param batch   batch of this generator
+     * @param variant index of the variant
+     * @param out     destination of the rendered text
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void generate(VariantBatch batch, int variant, Appendable out) throws IOException {
+        render(out, batch.context(variant));
+    }
+
+    /**
+     * Renders the variant of the given seed.
+     *
+     * @param seed seed of the variant
+     * @param out  destination of the rendered text
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void generate(long seed, Appendable out) throws IOException {
+        render(out, new GenerationContext(seed));
+    }
+
+    /**
+     * Returns the variant of the given seed.
+     *
+     * @param seed seed of the variant
+     * @return the rendered text
+     */
+    public String generate(long seed) {
+        return this.residual.print(new GenerationContext(seed));
+    }
+
+    /**
+     * Renders one variant per seed on the given pool and streams each of them
+     * to its own UTF-8 file. Blocks until every variant has been written.
+     *
+     * @param seeds  seeds of the variants
+     * @param target maps the index of a variant to its output file
+     * @param pool   pool the variants are rendered on
+     * @return the written files, in the order of {@code seeds}
+     * @throws IOException          if any variant could not be written
+     * @throws InterruptedException if interrupted while waiting for the pool
+     */
+    public List<Path> generateToFiles(long[] seeds, IntFunction<Path> target, ExecutorService pool)
+            throws IOException, InterruptedException {
+        return generateToFiles(seeds.length, i -> new GenerationContext(seeds[i]), target, pool);
+    }
+
+    /**
+     * Renders every variant of a batch prepared by {@link #batch(long, int)}
+     * on the given pool and streams each of them to its own UTF-8 file.
+     * Blocks until every variant has been written.
+     *
+     * @param batch  batch of this generator
+     * @param target maps the index of a variant to its output file
+     * @param pool   pool the variants are rendered on
+     * @return the written files, in the order of the variants
+     * @throws IOException          if any variant could not be written
+     * @throws InterruptedException if interrupted while waiting for the pool
+     */
+    public List<Path> generateToFiles(VariantBatch batch, IntFunction<Path> target, ExecutorService pool)
+            throws IOException, InterruptedException {
+        return generateToFiles(batch.size(), batch::context, target, pool);
+    }
+
+    private void render(Appendable out, GenerationContext ctx) throws IOException {
+        Metrics.Render timing = Metrics.startRender(out);
+        try {
+            this.residual.render(out, ctx);
+        } finally {
+            timing.stop();
+        }
+    }
+
+    private List<Path> generateToFiles(int count, IntFunction<GenerationContext> contexts,
+                                       IntFunction<Path> target, ExecutorService pool)
+            throws IOException, InterruptedException {
+        List<Future<Path>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            GenerationContext ctx = contexts.apply(i);
+            Path file = target.apply(i);
+            futures.add(pool.submit(() -> {
+                try (Writer writer = new ChannelWriter(FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                    render(writer, ctx);
+                }
+                return file;
+            }));
+        }
+
+        List<Path> files = new ArrayList<>(count);
+        IOException failure = null;
+        for (Future<Path> future : futures) {
+            try {
+                files.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException("Failed to generate variant", e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return files;
+    }
+
+    /**
+     * Copies the impure skeleton of a subtree, replacing pure subtrees by
+     * their rendered text. Shared subtrees are copied once.
+     */
+    private static Component residual(Component c, Map<Component, Boolean> purity,
+                                      Map<Component, Component> copies) {
+        Component copy = copies.get(c);
+        if (copy != null) {
+            return copy;
+        }
+        if (c instanceof FileRegionComponent) {
+            // Stays lazy so that file outputs can transfer it without decoding
+            copy = c;
+        } else if (purity.get(c)) {
+            // Any context renders a pure subtree to the same text
+            copy = new StringComponent(c.print(new GenerationContext(0)));
+        } else if (c instanceof VerticalComposite) {
+            VerticalComposite v = (VerticalComposite) c;
+            VerticalComposite skeleton = new VerticalComposite();
+            skeleton.setHistory(v.getHistory());
+            skeleton.setBatchSampling(v.isBatchSampling());
+            for (int i = 0; i < v.size(); i++) {
+                skeleton.add(residual(v.getChild(i), purity, copies), v.getWeight(i));
+            }
+            copy = skeleton;
+        } else if (c instanceof Composite) {
+            Composite composite = (Composite) c;
+            Composite skeleton = new Composite();
+            for (int i = 0; i < composite.size(); i++) {
+                skeleton.add(residual(composite.getChild(i), purity, copies));
+            }
+            copy = skeleton;
+        } else if (c instanceof Repeat) {
+            Repeat repeat = (Repeat) c;
+            copy = new Repeat(residual(repeat.getComponent(), purity, copies),
+                repeat.getMinCount(), repeat.getMaxCount());
+        } else {
+            copy = c;
+        }
+        copies.put(c, copy);
+        return copy;
+    }
+}
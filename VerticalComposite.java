@@ -1,21 +1,367 @@
-import java.util.Random;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Composite that randomly selects and prints one of its child components.
+ *
+ * <p>By default every child is equally likely. Children may be given
+ * weights, in which case draws use a precomputed alias table and take
+ * constant time however many children there are. Two constraints can be
+ * placed on the choice:</p>
+ * <ul>
+ *   <li>a history of k draws, which keeps the choice from repeating any of
+ *       the last k children drawn from this composite during one render</li>
+ *   <li>batch sampling, which deals the children of this composite to the
+ *       variants of a {@link VariantBatch} without replacement</li>
+ * </ul>
  */
 public class VerticalComposite extends Composite implements Component {
 
+    /** Weights of the children, or null while every child has weight 1 */
+    private double[] weights;
+
+    /** Alias table of the weights, built on first use */
+    private double[] probabilities;
+    private int[] aliases;
+
+    /** Number of recent draws the choice may not repeat */
+    private int history;
+
+    /** Whether the children are dealt to the variants of a batch */
+    private boolean batchSampling;
+
+    /**
+     * Adds a component with weight 1.
+     *
+     * @param c the component to add
+     * @throws UnsupportedOperationException if this composite is frozen
+     */
+    @Override
+    public void add(Component c) {
+        add(c, 1);
+    }
+
+    /**
+     * Adds a component that is drawn with a probability proportional to its
+     * weight.
+     *
+     * @param c      the component to add
+     * @param weight relative weight, 0 to never draw the component
+     * @throws IllegalArgumentException      if the weight is negative or not finite
+     * @throws UnsupportedOperationException if this composite is frozen
+     */
+    public void add(Component c, double weight) {
+        if (!(weight >= 0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("Invalid weight " + weight);
+        }
+        int index = size();
+        super.add(c);
+        if (this.weights == null && weight != 1) {
+            this.weights = new double[Math.max(4, index + 1)];
+            Arrays.fill(this.weights, 1);
+        }
+        if (this.weights != null) {
+            if (index == this.weights.length) {
+                this.weights = Arrays.copyOf(this.weights, index + (index >> 1) + 1);
+            }
+            this.weights[index] = weight;
+        }
+        this.probabilities = null;
+    }
+
+    @Override
+    void removeAt(int i) {
+        super.removeAt(i);
+        if (this.weights != null) {
+            System.arraycopy(this.weights, i + 1, this.weights, i, size() - i);
+        }
+        this.probabilities = null;
+    }
+
+    /**
+     * Returns the weight of a child.
+     *
+     * @param i index of the child
+     * @return its weight
+     * @throws IndexOutOfBoundsException if {@code i} is out of range
+     */
+    public double getWeight(int i) {
+        getChild(i);
+        return this.weights == null ? 1 : this.weights[i];
+    }
+
+    /**
+     * Returns whether every child has the same weight, so that a choice is a
+     * single uniform draw.
+     *
+     * @return true if no weights have been set
+     */
+    public boolean isUniform() {
+        return this.weights == null;
+    }
+
     /**
-     * Prints a randomly chosen child component.
+     * Keeps the choice from repeating any of the last {@code k} children drawn
+     * from this composite during one render. If fewer than {@code k + 1}
+     * children can be drawn, only the longest possible history is avoided.
      *
-     * @return string output of a random child, or an empty string if no children exist
+     * @param k number of recent draws to avoid, 0 to allow repeats
+     * @throws IllegalArgumentException      if {@code k} is negative
+     * @throws UnsupportedOperationException if this composite is frozen
      */
-    public String print() {
-        Random rand = new Random();
-        if (this.children.size() == 0) {
-            return "";
+    public void setHistory(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative history " + k);
         }
-        int n = rand.nextInt(this.children.size());
-        return this.children.get(n).print();
+        checkNotFrozen();
+        this.history = k;
+        changed();
+    }
+
+    /**
+     * Returns the number of recent draws the choice may not repeat.
+     *
+     * @return length of the history, 0 if repeats are allowed
+     */
+    public int getHistory() {
+        return this.history;
+    }
+
+    /**
+     * Deals the children to the variants of a {@link VariantBatch} without
+     * replacement: as long as the batch has no more variants than this
+     * composite has children, no two variants draw the same child here.
+     * Renders outside of a batch draw as usual.
+     *
+     * @param batchSampling whether to deal the children to the variants
+     * @throws UnsupportedOperationException if this composite is frozen
+     */
+    public void setBatchSampling(boolean batchSampling) {
+        checkNotFrozen();
+        this.batchSampling = batchSampling;
+        changed();
+    }
+
+    /**
+     * Returns whether the children are dealt to the variants of a batch.
+     *
+     * @return true if batch sampling is enabled
+     */
+    public boolean isBatchSampling() {
+        return this.batchSampling;
+    }
+
+    /**
+     * Returns whether a choice depends on earlier draws of the same render or
+     * batch, not only on the context it is drawn from.
+     *
+     * @return true if a history or batch sampling is set
+     */
+    public boolean isConstrained() {
+        return this.history > 0 || this.batchSampling;
+    }
+
+    /**
+     * Builds the alias table before the tree is shared between threads.
+     */
+    @Override
+    public void freeze() {
+        super.freeze();
+        if (this.weights != null) {
+            this.weights = Arrays.copyOf(this.weights, size());
+            aliasTable();
+        }
+    }
+
+    /**
+     * Draws the index of the child to render.
+     *
+     * @param ctx random state the choice is drawn from
+     * @return index of the chosen child
+     * @throws IllegalStateException if no child can be drawn
+     */
+    public int choose(GenerationContext ctx) {
+        int n = size();
+        if (this.batchSampling && ctx.getChoices().getBatch() != null) {
+            int[] record = ctx.getChoices().record(this, Math.min(this.history, size()));
+            int choice = ctx.getChoices().getBatch().deal(this, ctx.getChoices().getVariant(), record[0]);
+            remember(record, choice);
+            return choice;
+        }
+        if (this.history > 0) {
+            return chooseAvoiding(ctx);
+        }
+        if (this.weights == null) {
+            return ctx.nextInt(n);
+        }
+        aliasTable();
+        int i = ctx.nextInt(n);
+        return ctx.nextDouble() < this.probabilities[i] ? i : this.aliases[i];
+    }
+
+    /**
+     * Renders a randomly chosen child component. Writes nothing if no children exist.
+     *
+     * @param out destination of the rendered text
+     * @param ctx random state the choice is drawn from
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        if (this.size() == 0) {
+            return;
+        }
+        this.getChild(choose(ctx)).render(out, ctx);
+    }
+
+    /**
+     * Returns the probabilities of the alias table, for plans that draw from
+     * it themselves.
+     */
+    double[] aliasProbabilities() {
+        aliasTable();
+        return this.probabilities;
+    }
+
+    /**
+     * Returns the aliases of the alias table.
+     */
+    int[] aliasIndices() {
+        aliasTable();
+        return this.aliases;
+    }
+
+    /**
+     * Draws a child that is not among the recent draws; never rejects a
+     * draw. Costs O(k log k) for uniform children, where k is the history,
+     * as the n children are only counted, not visited. Weighted children
+     * cost O(n) for the sum of the weights that may be drawn.
+     */
+    private int chooseAvoiding(GenerationContext ctx) {
+        int n = size();
+        // No more than size() - 1 draws can be avoided, larger histories need no longer ring
+        int[] record = ctx.getChoices().record(this, Math.min(this.history, n));
+        // Uniform children all have weight 1
+        int drawable = this.weights == null ? n : 0;
+        for (int i = 0; this.weights != null && i < n; i++) {
+            drawable += this.weights[i] > 0 ? 1 : 0;
+        }
+        if (drawable == 0) {
+            throw new IllegalStateException("No child can be drawn, all weights are 0");
+        }
+
+        // The last min(k, drawable - 1) draws are distinct and may not be drawn again
+        int avoid = Math.min(Math.min(record.length - 1, drawable - 1), record[0]);
+        int[] excluded = new int[avoid];
+        for (int j = 0; j < avoid; j++) {
+            excluded[j] = record[1 + Math.floorMod(record[0] - 1 - j, record.length - 1)];
+        }
+        Arrays.sort(excluded);
+        int distinct = 0;
+        for (int j = 0; j < avoid; j++) {
+            if (j == 0 || excluded[j] != excluded[j - 1]) {
+                excluded[distinct++] = excluded[j];
+            }
+        }
+        excluded = Arrays.copyOf(excluded, distinct);
+
+        int choice;
+        if (this.weights == null) {
+            choice = ctx.nextInt(n - excluded.length);
+            for (int e : excluded) {
+                if (e <= choice) {
+                    choice++;
+                }
+            }
+        } else {
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += Arrays.binarySearch(excluded, i) < 0 ? this.weights[i] : 0;
+            }
+            double u = ctx.nextDouble() * total;
+            choice = -1;
+            for (int i = 0; i < n; i++) {
+                if (this.weights[i] > 0 && Arrays.binarySearch(excluded, i) < 0) {
+                    choice = i;
+                    u -= this.weights[i];
+                    if (u < 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        remember(record, choice);
+        return choice;
+    }
+
+    /**
+     * Appends a draw to a history record: the number of draws so far
+     * followed by a ring of the last draws.
+     */
+    private void remember(int[] record, int choice) {
+        if (record.length > 1) {
+            record[1 + record[0] % (record.length - 1)] = choice;
+        }
+        record[0]++;
+    }
+
+    /**
+     * Builds the alias table of the weights with Vose's method unless it is
+     * up to date.
+     */
+    private void aliasTable() {
+        if (this.probabilities != null) {
+            return;
+        }
+        int n = size();
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += this.weights[i];
+        }
+        if (!(total > 0)) {
+            throw new IllegalStateException("No child can be drawn, all weights are 0");
+        }
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smalls = 0;
+        int larges = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = this.weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smalls++] = i;
+            } else {
+                large[larges++] = i;
+            }
+        }
+
+        double[] probabilities = new double[n];
+        int[] aliases = new int[n];
+        while (smalls > 0 && larges > 0) {
+            int s = small[--smalls];
+            int l = large[--larges];
+            probabilities[s] = scaled[s];
+            aliases[s] = l;
+            scaled[l] -= 1 - scaled[s];
+            if (scaled[l] < 1) {
+                small[smalls++] = l;
+            } else {
+                large[larges++] = l;
+            }
+        }
+        // Entries left over only differ from 1 by rounding
+        while (larges > 0) {
+            int l = large[--larges];
+            probabilities[l] = 1;
+            aliases[l] = l;
+        }
+        while (smalls > 0) {
+            int s = small[--smalls];
+            probabilities[s] = 1;
+            aliases[s] = s;
+        }
+
+        this.aliases = aliases;
+        this.probabilities = probabilities;
     }
 }
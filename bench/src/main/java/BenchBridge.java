@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import composite.bench.Stages;
+import composite.bench.Workload;
+
+/**
+ * Implementation of the benchmark stages. Lives in the default package so
+ * that it can use the project's classes; the benchmarks load it by name.
+ */
+public final class BenchBridge implements Stages {
+
+    /** Template holding both slots, like Musik/Template.md */
+    private static final String TEMPLATE = "\\version \"2.24.2\"\n"
+        + "\\header { tagline = \"###DATEGOESHERE###\" }\n"
+        + "####MUSICGOESHERE####\n"
+        + "\\score { << \\new Staff \\voiceA \\new Staff \\voiceB \\new Staff \\voiceC >> \\layout {} \\midi {} }\n";
+
+    /** Score rendered by the renderer workloads */
+    private static final String SCORE = "\\version \"2.24.2\"\n\\score { { c'4 d' e' f' } \\layout {} \\midi {} }\n";
+
+    @Override
+    public Workload print(String shape, int size) {
+        Component tree = SyntheticTrees.tree(shape, size);
+        return seed -> tree.print(new GenerationContext(seed));
+    }
+
+    @Override
+    public Workload plan(String shape, int size) {
+        RenderPlan plan = RenderPlan.compile(SyntheticTrees.tree(shape, size));
+        return plan::print;
+    }
+
+    @Override
+    public Workload lilypond(String shape, int size) {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Musik/Template.md", TEMPLATE);
+        LilyPond lily = new LilyPond(SyntheticTrees.tree(shape, size), vault);
+        return seed -> lily.print(new GenerationContext(seed));
+    }
+
+    @Override
+    public Workload build(Path directory, String shape, int size) throws IOException {
+        String index = SyntheticVault.write(directory, shape, size);
+        FileSystemVault vault = new FileSystemVault(directory);
+        return seed -> new ObsidianBuilder(vault).makeFromObsidian(index, null);
+    }
+
+    @Override
+    public Workload renderer(String executable, int workers) throws Exception {
+        LilypondRenderer renderer = workers > 0
+            ? LilypondRenderer.pooled(executable, workers, Duration.ofSeconds(10))
+            : new LilypondRenderer(executable, Duration.ofSeconds(10));
+        return new Workload() {
+            @Override
+            public Object run(long seed) throws Exception {
+                return renderer.render(SCORE);
+            }
+
+            @Override
+            public void close() {
+                renderer.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Generators of synthetic, frozen Component trees for benchmarks.
+ *
+ * <p>Leaves are LilyPond snippets defining a voice, so the same trees also
+ * feed the LilyPond assembly.</p>
+ */
+final class SyntheticTrees {
+
+    /** Children of every VerticalComposite */
+    static final int CHOICES = 4;
+
+    private static final String[] VOICES = {"voiceA", "voiceB", "voiceC"};
+    private static final String[] PITCHES = {"c'", "d'", "e'", "f'", "g'", "a'", "b'"};
+
+    private SyntheticTrees() {
+    }
+
+    /**
+     * Builds a tree of the given shape.
+     *
+     * @param shape {@code wide}, {@code deep} or {@code repeat}
+     * @param size  number of sections, levels or repeats
+     * @return frozen root
+     */
+    static Component tree(String shape, int size) {
+        Component root;
+        switch (shape) {
+            case "wide":
+                root = wide(size);
+                break;
+            case "deep":
+                root = deep(size);
+                break;
+            case "repeat":
+                root = repeat(size);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree shape " + shape);
+        }
+        root.freeze();
+        return root;
+    }
+
+    /**
+     * A sequence of {@code size} sections, each choosing one of
+     * {@value #CHOICES} snippets.
+     */
+    static Component wide(int size) {
+        Composite root = new Composite();
+        for (int i = 0; i < size; i++) {
+            root.add(choice(i));
+        }
+        return root;
+    }
+
+    /**
+     * {@code size} levels, each a snippet followed by a choice between
+     * another snippet and the next level.
+     */
+    static Component deep(int size) {
+        Component level = snippet(size, 0);
+        for (int i = size - 1; i >= 0; i--) {
+            VerticalComposite next = new VerticalComposite();
+            next.add(snippet(i, 1));
+            next.add(level);
+            Composite composite = new Composite();
+            composite.add(snippet(i, 0));
+            composite.add(next);
+            level = composite;
+        }
+        return level;
+    }
+
+    /**
+     * A sequence of {@code size} repeats of 1 to 4 choices each, every
+     * fourth one a fixed repeat of pure text.
+     */
+    static Component repeat(int size) {
+        Composite root = new Composite();
+        for (int i = 0; i < size; i++) {
+            if (i % 4 == 3) {
+                root.add(new Repeat(snippet(i, 0), 2));
+            } else {
+                root.add(new Repeat(choice(i), 1, 4));
+            }
+        }
+        return root;
+    }
+
+    private static VerticalComposite choice(int section) {
+        VerticalComposite choice = new VerticalComposite();
+        for (int j = 0; j < CHOICES; j++) {
+            choice.add(snippet(section, j));
+        }
+        return choice;
+    }
+
+    private static StringComponent snippet(int section, int variant) {
+        return new StringComponent(text(section, variant));
+    }
+
+    /**
+     * Returns the fenced LilyPond snippet of a section's variant.
+     */
+    static String text(int section, int variant) {
+        StringBuilder notes = new StringBuilder();
+        for (int k = 0; k < 8; k++) {
+            notes.append(PITCHES[(section + variant * 3 + k) % PITCHES.length]).append(k == 0 ? "4 " : " ");
+        }
+        return "```lily\n" + VOICES[section % VOICES.length] + " = { " + notes.toString().trim() + " }\n```";
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generator of Obsidian vaults for benchmarks of ObsidianBuilder.
+ *
+ * <p>Every vault has an index note, {@value #INDEX}, whose sections link
+ * snippet notes as raw text. A flat vault links all snippets from the
+ * index. A nested vault links part notes with {@code ####}, each holding
+ * sections of snippet links of its own.</p>
+ */
+final class SyntheticVault {
+
+    /** Name of the generated index note */
+    static final String INDEX = "_Index.md";
+
+    /** Links per section */
+    private static final int LINES = 8;
+
+    private SyntheticVault() {
+    }
+
+    /**
+     * Writes a vault.
+     *
+     * @param directory empty directory to write the notes to
+     * @param shape     {@code flat} or {@code nested}
+     * @param size      number of notes linked from the index
+     * @return name of the index note
+     * @throws IOException if a note cannot be written
+     */
+    static String write(Path directory, String shape, int size) throws IOException {
+        switch (shape) {
+            case "flat":
+                write(directory, INDEX, sections("Snippet", 0, size));
+                for (int i = 0; i < size; i++) {
+                    snippet(directory, i);
+                }
+                break;
+            case "nested":
+                StringBuilder index = new StringBuilder("# Parts\n");
+                for (int i = 0; i < size; i++) {
+                    index.append("[[Part ").append(i).append("]]####\n");
+                    write(directory, "Part " + i + ".md", sections("Snippet", i * LINES, LINES));
+                }
+                write(directory, INDEX, index);
+                for (int i = 0; i < size * LINES; i++) {
+                    snippet(directory, i);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown vault shape " + shape);
+        }
+        return INDEX;
+    }
+
+    /**
+     * Returns sections of raw links to {@code count} notes, with repeat
+     * markers and weights sprinkled in.
+     */
+    private static StringBuilder sections(String prefix, int first, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i % LINES == 0) {
+                text.append("# Section ").append(i / LINES).append('\n');
+            }
+            text.append("[[").append(prefix).append(' ').append(first + i).append("]]+");
+            if (i % 3 == 0) {
+                text.append(" *1-3");
+            }
+            if (i % 5 == 0) {
+                text.append(" ~2");
+            }
+            text.append('\n');
+        }
+        return text;
+    }
+
+    private static void snippet(Path directory, int i) throws IOException {
+        write(directory, "Snippet " + i + ".md", SyntheticTrees.text(i, i % SyntheticTrees.CHOICES));
+    }
+
+    private static void write(Path directory, String name, CharSequence text) throws IOException {
+        Files.writeString(directory.resolve(name), text, StandardCharsets.UTF_8);
+    }
+}
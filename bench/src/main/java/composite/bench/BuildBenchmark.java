@@ -0,0 +1,52 @@
+package composite.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Building a tree from a vault with {@code ObsidianBuilder}: reading,
+ * lexing and linking every note of a generated vault in a temporary
+ * directory. Each invocation starts without a note cache, like a cold
+ * build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Param({Stages.FLAT, Stages.NESTED})
+    public String shape;
+
+    @Param({"50", "500"})
+    public int size;
+
+    private Path directory;
+    private Workload build;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("composite-vault-");
+        this.build = Stages.load().build(this.directory, this.shape, this.size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object build() throws Exception {
+        return this.build.run(0);
+    }
+}
@@ -0,0 +1,37 @@
+package composite.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Assembling a LilyPond score with {@code LilyPond.print()}: rendering the
+ * tree into the voice collector and streaming the template around it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LilyPondBenchmark {
+
+    @Param({Stages.WIDE, Stages.REPEAT})
+    public String shape;
+
+    @Param({"64", "512"})
+    public int size;
+
+    private Workload assemble;
+    private long seed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.assemble = Stages.load().lilypond(this.shape, this.size);
+    }
+
+    @Benchmark
+    public Object assemble() throws Exception {
+        return this.assemble.run(this.seed++);
+    }
+}
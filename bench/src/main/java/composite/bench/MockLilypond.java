@@ -0,0 +1,46 @@
+package composite.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Stand-in for the {@code lilypond} executable, so that the overhead of
+ * {@code LilypondRenderer} can be measured without engraving.
+ *
+ * <p>The mock is a POSIX shell script with LilyPond's I/O: it answers
+ * {@code --version}, reads a source from standard input for
+ * {@code -o <prefix> -} and writes {@code <prefix>.pdf} and
+ * {@code <prefix>.mid}, and speaks the worker protocol of
+ * {@code LilypondWorkerPool} when started with a script file.</p>
+ */
+public final class MockLilypond {
+
+    private static final String SCRIPT = "mock-lilypond.sh";
+
+    private MockLilypond() {
+    }
+
+    /**
+     * Writes the mock to an executable temporary file.
+     *
+     * @return path of the executable
+     */
+    public static Path install() {
+        try (InputStream in = MockLilypond.class.getResourceAsStream("/" + SCRIPT)) {
+            if (in == null) {
+                throw new IllegalStateException(SCRIPT + " is missing from the class path");
+            }
+            Path script = Files.createTempFile("mock-lilypond-", ".sh",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.write(script, in.readAllBytes());
+            script.toFile().deleteOnExit();
+            return script;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package composite.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering a built tree: {@code Composite.print()}, {@code Repeat.print()}
+ * and {@code VerticalComposite.print()} through the tree walk, and the same
+ * trees through a compiled {@code RenderPlan}.
+ *
+ * <p>Every invocation uses a new seed, so choices and repeat counts vary
+ * like they do across generated variants.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({Stages.WIDE, Stages.DEEP, Stages.REPEAT})
+    public String shape;
+
+    @Param({"64", "512"})
+    public int size;
+
+    private Workload tree;
+    private Workload plan;
+    private long seed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Stages stages = Stages.load();
+        this.tree = stages.print(this.shape, this.size);
+        this.plan = stages.plan(this.shape, this.size);
+    }
+
+    @Benchmark
+    public Object print() throws Exception {
+        return this.tree.run(this.seed++);
+    }
+
+    @Benchmark
+    public Object plan() throws Exception {
+        return this.plan.run(this.seed++);
+    }
+}
@@ -0,0 +1,40 @@
+package composite.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Overhead of {@code LilypondRenderer} around the LilyPond process, measured
+ * against {@link MockLilypond}: process launch, piping the source, output
+ * draining and collecting the files. {@code workers = 0} starts a process
+ * per render, other values render on a warm worker pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RendererBenchmark {
+
+    @Param({"0", "2"})
+    public int workers;
+
+    private Workload render;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.render = Stages.load().renderer(MockLilypond.install().toString(), this.workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.render.close();
+    }
+
+    @Benchmark
+    public Object render() throws Exception {
+        return this.render.run(0);
+    }
+}
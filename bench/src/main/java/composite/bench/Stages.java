@@ -0,0 +1,89 @@
+package composite.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Factory of {@link Workload}s for each stage of the pipeline.
+ *
+ * <p>JMH requires benchmarks in a named package, while every class of the
+ * project lives in the default package, which named packages cannot
+ * import. The implementation, {@code BenchBridge}, is therefore itself a
+ * default-package class that implements this interface. It is loaded by
+ * name once per trial; the measured calls are plain interface calls that
+ * the JIT inlines like direct ones.</p>
+ */
+public interface Stages {
+
+    /** Tree shapes understood by the tree workloads */
+    String WIDE = "wide";
+    String DEEP = "deep";
+    String REPEAT = "repeat";
+
+    /** Vault shapes understood by {@link #build(Path, String, int)} */
+    String FLAT = "flat";
+    String NESTED = "nested";
+
+    /**
+     * Returns the bridge to the default package.
+     *
+     * @return the stages implementation
+     */
+    static Stages load() {
+        try {
+            return (Stages) Class.forName("BenchBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchBridge is missing from the class path", e);
+        }
+    }
+
+    /**
+     * Renders a synthetic tree with {@code Component.print}.
+     *
+     * @param shape {@link #WIDE}, {@link #DEEP} or {@link #REPEAT}
+     * @param size  number of sections, levels or repeats
+     * @return workload returning the rendered String
+     */
+    Workload print(String shape, int size);
+
+    /**
+     * Renders a synthetic tree through a compiled {@code RenderPlan}.
+     *
+     * @param shape {@link #WIDE}, {@link #DEEP} or {@link #REPEAT}
+     * @param size  number of sections, levels or repeats
+     * @return workload returning the rendered String
+     */
+    Workload plan(String shape, int size);
+
+    /**
+     * Assembles a LilyPond score from a synthetic tree of voice snippets
+     * with {@code LilyPond.print}.
+     *
+     * @param shape {@link #WIDE}, {@link #DEEP} or {@link #REPEAT}
+     * @param size  number of sections, levels or repeats
+     * @return workload returning the assembled score
+     */
+    Workload lilypond(String shape, int size);
+
+    /**
+     * Generates a vault and builds its index note from scratch with
+     * {@code ObsidianBuilder}, without a shared note cache.
+     *
+     * @param directory empty directory the vault is generated in
+     * @param shape     {@link #FLAT} or {@link #NESTED}
+     * @param size      number of notes linked from the index
+     * @return workload returning the root component
+     * @throws IOException if the vault cannot be written
+     */
+    Workload build(Path directory, String shape, int size) throws IOException;
+
+    /**
+     * Renders a small score with {@code LilypondRenderer}.
+     *
+     * @param executable LilyPond executable, such as the {@link MockLilypond}
+     * @param workers    size of the worker pool, 0 to start a process per render
+     * @return workload returning the PDF and MIDI, to be closed after the trial
+     * @throws Exception if the worker pool cannot be started
+     */
+    Workload renderer(String executable, int workers) throws Exception;
+}
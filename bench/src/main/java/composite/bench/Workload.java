@@ -0,0 +1,28 @@
+package composite.bench;
+
+/**
+ * One stage of the pipeline, prepared for repeated measurement.
+ *
+ * <p>Workloads are created by {@link Stages}. The benchmarks only see this
+ * interface, because the classes they exercise live in the default package
+ * and cannot be referenced from named packages.</p>
+ */
+@FunctionalInterface
+public interface Workload extends AutoCloseable {
+
+    /**
+     * Runs the stage once.
+     *
+     * @param seed seed of the run, for stages that draw random choices
+     * @return the stage's output, to be consumed by a Blackhole
+     * @throws Exception if the stage fails
+     */
+    Object run(long seed) throws Exception;
+
+    /**
+     * Releases processes or files the workload holds. Does nothing by default.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,32 @@
+#!/bin/sh
+# Stand-in for lilypond with the same command line and I/O, but no engraving.
+#   mock-lilypond.sh --version
+#   mock-lilypond.sh -o PREFIX -      reads the source from stdin
+#   mock-lilypond.sh WORKER.ly        runs the LilypondWorkerPool protocol
+
+case "$1" in
+    --version)
+        echo "GNU LilyPond 0.0.0 (mock)"
+        exit 0
+        ;;
+    -o)
+        cat > /dev/null
+        printf '%%PDF-1.4 mock\n' > "$2.pdf"
+        printf 'MThd' > "$2.mid"
+        exit 0
+        ;;
+esac
+
+tab=$(printf '\t')
+echo "@composite ready"
+while IFS= read -r line; do
+    if [ "$line" = ping ]; then
+        echo "@composite pong"
+        continue
+    fi
+    directory=${line%%"$tab"*}
+    name=${line##*"$tab"}
+    printf '%%PDF-1.4 mock\n' > "$directory/$name.pdf"
+    printf 'MThd' > "$directory/$name.mid"
+    echo "@composite ok"
+done
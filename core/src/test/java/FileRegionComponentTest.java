@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Renders {@link FileRegionComponent}s into Strings and through a
+ * {@link ChannelWriter}, and checks that a raw inclusion renders the same
+ * text whether it is read into a String or left in its file.
+ */
+class FileRegionComponentTest {
+
+    private static final String NL = System.lineSeparator();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void trailingLineBreakIsLeftOut() throws IOException {
+        assertEquals("", print(write("empty.txt", "")));
+        assertEquals("a", print(write("lf.txt", "a\n")));
+        assertEquals("a", print(write("crlf.txt", "a\r\n")));
+        assertEquals("a" + NL, print(write("two.txt", "a\n\n")));
+    }
+
+    @Test
+    void lineBreaksBecomeTheLineSeparator() throws IOException {
+        FileRegionComponent c = write("mixed.txt", "a\r\nb\rc\nd\r\n");
+
+        assertEquals("a" + NL + "b" + NL + "c" + NL + "d", print(c));
+        assertEquals("a" + NL + "b" + NL + "c" + NL + "d", throughChannel(c));
+    }
+
+    @Test
+    void charactersAcrossChunksAreDecoded() throws IOException {
+        // Two-byte characters at an odd offset straddle every chunk boundary
+        String text = "x" + "é\r\nü".repeat(50_000);
+        FileRegionComponent c = write("wide.txt", text);
+
+        String expected = text.replace("\r\n", NL);
+        assertEquals(expected, print(c));
+        assertEquals(expected, throughChannel(c));
+    }
+
+    @Test
+    void channelWriterKeepsTheOrderOfTextAndRegions() throws IOException {
+        FileRegionComponent c = write("native.txt", "one" + NL + "two" + NL);
+        Path out = this.dir.resolve("out.txt");
+
+        try (ChannelWriter writer = new ChannelWriter(FileChannel.open(out,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE))) {
+            writer.append("before ");
+            c.render(writer, new GenerationContext(1));
+            writer.append(" after ü");
+        }
+
+        assertEquals("before one" + NL + "two after ü", Files.readString(out));
+    }
+
+    @Test
+    void regionChangesWithItsFile() throws IOException {
+        FileRegionComponent c = write("changing.txt", "a\nb");
+        assertEquals("a" + NL + "b", throughChannel(c));
+
+        Files.writeString(c.getFile(), "a\r\nbc");
+
+        assertEquals("a" + NL + "bc", throughChannel(c));
+    }
+
+    @Test
+    void rawInclusionRendersAlikeAboveAndBelowTheThreshold() throws IOException {
+        String small = "l1\r\nl2\r\n";
+        String large = "line\r\n".repeat((int) (ObsidianBuilder.MAPPED_TEXT_THRESHOLD / 6) + 1);
+        Files.writeString(this.dir.resolve("Small.md"), small);
+        Files.writeString(this.dir.resolve("Large.md"), large);
+        Files.writeString(this.dir.resolve("Root.md"), "# A\n[[Small]] +\n# B\n[[Large]] +\n");
+
+        Component root = new ObsidianBuilder(new FileSystemVault(this.dir)).makeFromObsidian("Root.md", "");
+        String rendered = root.print(new GenerationContext(1));
+
+        // Composites end every child with \n, whatever the platform
+        String expected = small.replace("\r\n", NL).strip() + "\n\n" + large.replace("\r\n", NL).strip() + "\n\n";
+        assertEquals(expected, rendered);
+    }
+
+    private FileRegionComponent write(String name, String text) throws IOException {
+        Path file = this.dir.resolve(name);
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return new FileRegionComponent(file);
+    }
+
+    private static String print(FileRegionComponent c) {
+        return c.print(new GenerationContext(1));
+    }
+
+    private String throughChannel(FileRegionComponent c) throws IOException {
+        Path out = Files.createTempFile(this.dir, "out", ".txt");
+        try (ChannelWriter writer = new ChannelWriter(FileChannel.open(out, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))) {
+            c.render(writer, new GenerationContext(1));
+        }
+        return Files.readString(out);
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Builds notes whose inclusions loop, nest too deeply or create too many
+ * components, and checks the chain each {@link InclusionException} names.
+ */
+class InclusionExceptionTest {
+
+    @Test
+    void noteIncludingItselfNamesTheLoop() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("A.md", "[[B]] ####");
+        vault.put("B.md", "[[C]] ####");
+        vault.put("C.md", "[[A]] ####");
+
+        InclusionException e = assertThrows(InclusionException.class,
+            () -> new ObsidianBuilder(vault).makeFromObsidian("A.md", ""));
+
+        assertEquals(notes(vault, "A.md", "B.md", "C.md", "A.md"), e.getChain());
+        assertTrue(e.getMessage().startsWith("Note includes itself: "), e.getMessage());
+        assertTrue(e.getMessage().contains(" -> "), e.getMessage());
+    }
+
+    @Test
+    void directSelfInclusionIsALoop() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("A.md", "# A\n[[A]] ####");
+
+        InclusionException e = assertThrows(InclusionException.class,
+            () -> new ObsidianBuilder(vault).makeFromObsidian("A.md", ""));
+
+        assertEquals(notes(vault, "A.md", "A.md"), e.getChain());
+    }
+
+    @Test
+    void chainDeeperThanTheMaximumFails() {
+        InMemoryVault vault = new InMemoryVault();
+        for (int i = 0; i < 5; i++) {
+            vault.put("N" + i + ".md", "[[N" + (i + 1) + "]] ####");
+        }
+        vault.put("N5.md", "[[Beat]]");
+        ObsidianBuilder builder = new ObsidianBuilder(vault);
+        builder.setMaxDepth(3);
+
+        InclusionException e = assertThrows(InclusionException.class, () -> builder.makeFromObsidian("N0.md", ""));
+
+        assertEquals(notes(vault, "N0.md", "N1.md", "N2.md", "N3.md"), e.getChain());
+        assertTrue(e.getMessage().startsWith("Inclusion depth 3 exceeded"), e.getMessage());
+
+        builder.setMaxDepth(6);
+        assertEquals("![[Beat]]", builder.makeFromObsidian("N0.md", "").print(new GenerationContext(1)).strip());
+    }
+
+    @Test
+    void sharedNoteIsNotALoop() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Root.md", "# A\n[[Shared]] ####\n# B\n[[Shared]] ####");
+        vault.put("Shared.md", "[[Beat]]");
+
+        String rendered = new ObsidianBuilder(vault).makeFromObsidian("Root.md", "").print(new GenerationContext(1));
+
+        assertEquals(2, rendered.split("!\\[\\[Beat]]", -1).length - 1, rendered);
+    }
+
+    @Test
+    void buildOverItsBudgetFails() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Root.md", "[[Big]] ####");
+        vault.put("Big.md", "[[Beat]]\n".repeat(50));
+        ObsidianBuilder builder = new ObsidianBuilder(vault);
+        builder.setNodeBudget(20);
+
+        InclusionException e = assertThrows(InclusionException.class, () -> builder.makeFromObsidian("Root.md", ""));
+
+        assertEquals(notes(vault, "Root.md", "Big.md"), e.getChain());
+        assertTrue(e.getMessage().startsWith("Node budget of 20 components exceeded"), e.getMessage());
+    }
+
+    @Test
+    void sharedNotesAreChargedOnce() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Big.md", "[[Beat]]\n".repeat(20));
+        vault.put("Root.md", "# Part\n[[Big]] ####\n".repeat(10));
+        ObsidianBuilder builder = new ObsidianBuilder(vault);
+        builder.setNodeBudget(100);
+
+        String rendered = builder.makeFromObsidian("Root.md", "").print(new GenerationContext(1));
+
+        assertEquals(10, rendered.split("!\\[\\[Beat]]", -1).length - 1);
+    }
+
+    @Test
+    void chainCannotBeChanged() {
+        InclusionException e = new InclusionException("Failed", new ArrayList<>(List.of(Path.of("A.md"))));
+
+        assertEquals("Failed: A.md", e.getMessage());
+        assertThrows(UnsupportedOperationException.class, () -> e.getChain().add(Path.of("B.md")));
+    }
+
+    private static List<Path> notes(Vault vault, String... names) {
+        Path[] paths = new Path[names.length];
+        for (int i = 0; i < names.length; i++) {
+            paths[i] = vault.resolve(names[i]);
+        }
+        return List.of(paths);
+    }
+}
@@ -0,0 +1,197 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Stores renders made up by a stand-in renderer in a
+ * {@link LilypondOutputCache} and checks hits, misses, eviction and the
+ * handling of entries that were cut short on disk.
+ */
+class LilypondOutputCacheTest {
+
+    private static final String VERSION = "GNU LilyPond 2.24.2";
+    private static final String FLAGS = "-o output -";
+
+    @TempDir
+    Path dir;
+
+    /** Number of renders the cache asked for */
+    private final AtomicInteger renders = new AtomicInteger();
+
+    @Test
+    void secondRequestIsAHit() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+
+        LilypondRenderer.Result first = cache.get("{ c }", FLAGS, this::render);
+        LilypondRenderer.Result second = cache.get("{ c }", FLAGS, this::render);
+
+        assertEquals(1, this.renders.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(first.pdf, second.pdf);
+        assertArrayEquals(first.midi, second.midi);
+    }
+
+    @Test
+    void entriesSurviveReopening() throws Exception {
+        new LilypondOutputCache(this.dir, 1 << 20, VERSION).get("{ d }", FLAGS, this::render);
+
+        LilypondOutputCache reopened = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+        LilypondRenderer.Result result = reopened.get("{ d }", FLAGS, this::render);
+
+        assertEquals(1, this.renders.get());
+        assertEquals("pdf:{ d }", new String(result.pdf, StandardCharsets.UTF_8));
+        assertEquals(1, reopened.getHits());
+    }
+
+    @Test
+    void flagsAndVersionArePartOfTheKey() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+        cache.get("{ e }", FLAGS, this::render);
+
+        cache.get("{ e }", "worker", this::render);
+        new LilypondOutputCache(this.dir, 1 << 20, "GNU LilyPond 2.25.0").get("{ e }", FLAGS, this::render);
+
+        assertEquals(3, this.renders.get());
+    }
+
+    @Test
+    void emptyMidiIsStored() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+        LilypondRenderer.Result empty = new LilypondRenderer.Result("pdf".getBytes(StandardCharsets.UTF_8), new byte[0]);
+
+        cache.get("{ f }", FLAGS, source -> empty);
+        LilypondRenderer.Result cached = cache.get("{ f }", FLAGS, this::render);
+
+        assertEquals(0, this.renders.get());
+        assertEquals("pdf", new String(cached.pdf, StandardCharsets.UTF_8));
+        assertEquals(0, cached.midi.length);
+        assertEquals(Long.BYTES + 3, Files.size(entries().get(0)));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        // Every entry takes 8 + 100 + 100 bytes, so the third one overflows
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 500, VERSION);
+        cache.get("a", FLAGS, this::renderLarge);
+        Thread.sleep(5);
+        cache.get("b", FLAGS, this::renderLarge);
+        Thread.sleep(5);
+        cache.get("a", FLAGS, this::renderLarge);
+        Thread.sleep(5);
+
+        cache.get("c", FLAGS, this::renderLarge);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2 * 208, cache.getSize());
+        assertEquals(2, entries().size());
+        cache.get("a", FLAGS, this::renderLarge);
+        cache.get("c", FLAGS, this::renderLarge);
+        assertEquals(3, this.renders.get());
+        cache.get("b", FLAGS, this::renderLarge);
+        assertEquals(4, this.renders.get());
+    }
+
+    @Test
+    void truncatedEntryIsRenderedAgain() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+        cache.get("{ g }", FLAGS, this::render);
+        Path entry = entries().get(0);
+        Files.write(entry, new byte[] {0, 0, 0});
+
+        LilypondRenderer.Result result = cache.get("{ g }", FLAGS, this::render);
+
+        assertEquals(2, this.renders.get());
+        assertEquals("mid:{ g }", new String(result.midi, StandardCharsets.UTF_8));
+        assertTrue(Files.size(entry) > 3);
+    }
+
+    @Test
+    void entryShorterThanItsPdfIsRenderedAgain() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+        cache.get("{ a }", FLAGS, this::render);
+        Path entry = entries().get(0);
+        byte[] bytes = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(bytes, Long.BYTES + 2));
+
+        LilypondRenderer.Result result = cache.get("{ a }", FLAGS, this::render);
+
+        assertEquals(2, this.renders.get());
+        assertEquals("pdf:{ a }", new String(result.pdf, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void failedRenderIsNotStored() throws Exception {
+        LilypondOutputCache cache = new LilypondOutputCache(this.dir, 1 << 20, VERSION);
+
+        assertThrows(IOException.class, () -> cache.get("{ b }", FLAGS, source -> {
+            throw new IOException("parse error");
+        }));
+
+        assertEquals(0, entries().size());
+        cache.get("{ b }", FLAGS, this::render);
+        assertEquals(1, this.renders.get());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void versionIsTheFirstLine() throws Exception {
+        Path lilypond = script("echo 'GNU LilyPond 2.24.2 (running Guile 2.2)'; echo; echo Copyright");
+
+        assertEquals("GNU LilyPond 2.24.2 (running Guile 2.2)", LilypondOutputCache.version(lilypond.toString()));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void hungVersionTimesOut() throws Exception {
+        Path lilypond = script("echo 'GNU LilyPond 2.24.2'; exec sleep 60");
+        long start = System.nanoTime();
+
+        IOException e = assertThrows(IOException.class,
+            () -> LilypondOutputCache.version(lilypond.toString(), Duration.ofMillis(500)));
+
+        assertTrue(e.getMessage().contains("within 500 ms"), e.getMessage());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(30).toNanos());
+    }
+
+    private LilypondRenderer.Result render(String source) {
+        this.renders.incrementAndGet();
+        return new LilypondRenderer.Result(("pdf:" + source).getBytes(StandardCharsets.UTF_8),
+            ("mid:" + source).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private LilypondRenderer.Result renderLarge(String source) {
+        this.renders.incrementAndGet();
+        return new LilypondRenderer.Result(new byte[100], new byte[100]);
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.walk(this.dir)) {
+            return files.filter(f -> f.toString().endsWith(".entry")).collect(Collectors.toList());
+        }
+    }
+
+    private Path script(String body) throws IOException {
+        Path script = this.dir.resolve("lilypond");
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx------"));
+        return script;
+    }
+}
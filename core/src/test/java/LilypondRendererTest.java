@@ -0,0 +1,222 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs a {@link LilypondRenderer} on {@code stand-in-lilypond.sh}, a shell
+ * script called like LilyPond that renders its source into text files or
+ * hangs, depending on the source. The stand-in records the scratch
+ * directory it ran in, so the tests can check what is left there.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class LilypondRendererTest {
+
+    private static final long WAIT_MILLIS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    /** Executable copy of the stand-in */
+    private Path lilypond;
+
+    /** Process ids of hanging stand-ins, as file names */
+    private Path pids;
+
+    private LilypondRenderer renderer;
+
+    @BeforeEach
+    void installStandIn() throws IOException {
+        this.lilypond = this.dir.resolve("lilypond");
+        try (InputStream script = LilypondRendererTest.class.getResourceAsStream("/stand-in-lilypond.sh")) {
+            Files.copy(script, this.lilypond);
+        }
+        Files.setPosixFilePermissions(this.lilypond, PosixFilePermissions.fromString("rwx------"));
+        this.pids = Files.createDirectory(this.dir.resolve("pids"));
+    }
+
+    @AfterEach
+    void closeRenderer() {
+        if (this.renderer != null) {
+            this.renderer.close();
+        }
+    }
+
+    @Test
+    void asyncRendersCompleteWithTheirResults() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(30), 2);
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            sources.add("{ c" + i + " }");
+        }
+
+        List<CompletableFuture<LilypondRenderer.Result>> results = this.renderer.renderAll(sources);
+
+        for (int i = 0; i < sources.size(); i++) {
+            LilypondRenderer.Result result = results.get(i).get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            assertEquals("pdf:" + sources.get(i), new String(result.pdf, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void submittingBlocksWhileTheQueueIsFull() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(60), 1);
+        List<CompletableFuture<LilypondRenderer.Result>> hanging = new ArrayList<>();
+        for (int i = 0; i < LilypondRenderer.QUEUE_FACTOR; i++) {
+            hanging.add(this.renderer.renderAsync("HANG " + i));
+        }
+
+        CompletableFuture<CompletableFuture<LilypondRenderer.Result>> submitted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.renderer.renderAsync("{ late }");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> submitted.get(500, TimeUnit.MILLISECONDS));
+
+        hanging.get(LilypondRenderer.QUEUE_FACTOR - 1).cancel(true);
+        CompletableFuture<LilypondRenderer.Result> late = submitted.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+        hanging.forEach(f -> f.cancel(true));
+        LilypondRenderer.Result result = late.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        assertEquals("pdf:{ late }", new String(result.pdf, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void cancellingKillsTheProcess() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(60), 1);
+        CompletableFuture<LilypondRenderer.Result> result = this.renderer.renderAsync("HANG");
+        long pid = awaitPid();
+        assertTrue(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false));
+
+        result.cancel(true);
+
+        assertThrows(CancellationException.class, result::join);
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), "stand-in " + pid);
+        assertEquals("pdf:{ next }",
+            new String(this.renderer.renderAsync("{ next }").get(WAIT_MILLIS, TimeUnit.MILLISECONDS).pdf,
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void timeoutOfAJobFailsItsFuture() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(60), 1);
+
+        CompletableFuture<LilypondRenderer.Result> result = this.renderer.renderAsync("HANG", Duration.ofMillis(300));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+    }
+
+    @Test
+    void scratchDirectoriesAreEmptiedAndReused() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(30), 1);
+        Set<Path> used = new HashSet<>();
+
+        for (int i = 0; i < 3 * Runtime.getRuntime().availableProcessors(); i++) {
+            used.add(scratchOf(this.renderer.render("{ d" + i + " }")));
+        }
+
+        assertTrue(used.size() <= Runtime.getRuntime().availableProcessors(), used.toString());
+        for (Path scratch : used) {
+            assertEquals(LilypondRenderer.scratchRoot(), scratch.getParent());
+            assertEquals(List.of(), children(scratch));
+        }
+    }
+
+    @Test
+    void renderToFilesLeavesTheScratchDirectoryEmpty() throws Exception {
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(30), 1);
+        Path pdf = this.dir.resolve("out.pdf");
+        Path midi = this.dir.resolve("out.mid");
+
+        this.renderer.renderToFiles("{ e }", pdf, midi);
+
+        assertEquals("pdf:{ e }", Files.readString(pdf));
+        Path scratch = Path.of(Files.readString(midi));
+        assertEquals(LilypondRenderer.scratchRoot(), scratch.getParent());
+        assertEquals(List.of(), children(scratch));
+    }
+
+    @Test
+    void idleScratchDirectoriesAreBounded() throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.renderer = new LilypondRenderer(this.lilypond.toString(), Duration.ofSeconds(30), 3 * processors);
+        List<String> sources = new ArrayList<>();
+        for (int i = 0; i < 6 * processors; i++) {
+            sources.add("{ f" + i + " }");
+        }
+
+        for (CompletableFuture<LilypondRenderer.Result> result : this.renderer.renderAll(sources)) {
+            result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(children(LilypondRenderer.scratchRoot()).size() <= processors);
+    }
+
+    @Test
+    void scratchIsOnTmpfsWhereAvailable() throws IOException {
+        Path shm = Path.of("/dev/shm");
+        Path parent = Files.isDirectory(shm) && Files.isWritable(shm)
+            ? shm : Path.of(System.getProperty("java.io.tmpdir"));
+
+        assertEquals(parent, LilypondRenderer.scratchRoot().getParent());
+    }
+
+    /** Scratch directory a render ran in, as recorded by the stand-in */
+    private static Path scratchOf(LilypondRenderer.Result result) {
+        return Path.of(new String(result.midi, StandardCharsets.UTF_8));
+    }
+
+    private static List<Path> children(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toList();
+        }
+    }
+
+    /** Waits for the first hanging stand-in to record its process id */
+    private long awaitPid() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Stream<Path> files = Files.list(this.pids)) {
+                List<Path> found = files.toList();
+                if (!found.isEmpty()) {
+                    return Long.parseLong(found.get(0).getFileName().toString());
+                }
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("No stand-in started hanging");
+    }
+}
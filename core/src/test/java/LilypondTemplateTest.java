@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fills the slots of parsed {@link LilypondTemplate}s and compares the
+ * result with replacing the markers in the template text.
+ */
+class LilypondTemplateTest {
+
+    private static final String MUSIC_MARKER = "####MUSICGOESHERE####";
+    private static final String DATE_MARKER = "###DATEGOESHERE###";
+
+    @Test
+    void slotsAreFilledInPlaceOfTheirMarkers() throws IOException {
+        String[] texts = {
+            "",
+            "no markers at all",
+            "\\header { date = \"" + DATE_MARKER + "\" }\n" + MUSIC_MARKER + "\n\\score { }",
+            MUSIC_MARKER + DATE_MARKER + MUSIC_MARKER,
+            "a" + DATE_MARKER + "b" + DATE_MARKER,
+            "#" + MUSIC_MARKER + "#",
+        };
+
+        for (String text : texts) {
+            String expected = text.replace(MUSIC_MARKER, "voices").replace(DATE_MARKER, "today");
+
+            assertEquals(expected, fill(LilypondTemplate.parse(text)), text);
+        }
+    }
+
+    @Test
+    void fillerSeesTheSlotsInOrder() throws IOException {
+        LilypondTemplate template = LilypondTemplate.parse(
+            "x" + DATE_MARKER + "y" + MUSIC_MARKER + "z" + DATE_MARKER);
+        List<String> slots = new ArrayList<>();
+
+        template.render(new StringBuilder(), (slot, out) -> slots.add(slot));
+
+        assertEquals(List.of(LilypondTemplate.DATE, LilypondTemplate.MUSIC, LilypondTemplate.DATE), slots);
+    }
+
+    @Test
+    void fillerWritesBetweenTheSegments() throws IOException {
+        StringBuilder out = new StringBuilder();
+
+        LilypondTemplate.parse("<" + MUSIC_MARKER + ">").render(out, (slot, o) -> o.append(String.valueOf(out.length())));
+
+        assertEquals("<1>", out.toString());
+    }
+
+    @Test
+    void unchangedTemplateIsParsedOnce() throws IOException {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Template.md", "old " + MUSIC_MARKER);
+        Path path = vault.resolve("Template.md");
+
+        LilypondTemplate first = LilypondTemplate.load(vault, path);
+        assertSame(first, LilypondTemplate.load(vault, path));
+
+        vault.put("Template.md", "new " + MUSIC_MARKER);
+        LilypondTemplate changed = LilypondTemplate.load(vault, path);
+
+        assertNotSame(first, changed);
+        assertEquals("new voices", fill(changed));
+    }
+
+    @Test
+    void templatesAreKeptPerVault() throws IOException {
+        InMemoryVault a = new InMemoryVault();
+        InMemoryVault b = new InMemoryVault();
+        a.put("Template.md", "a " + DATE_MARKER);
+        b.put("Template.md", "b " + DATE_MARKER);
+
+        assertEquals("a today", fill(LilypondTemplate.load(a, a.resolve("Template.md"))));
+        assertEquals("b today", fill(LilypondTemplate.load(b, b.resolve("Template.md"))));
+    }
+
+    private static String fill(LilypondTemplate template) throws IOException {
+        StringBuilder out = new StringBuilder();
+        template.render(out, (slot, o) -> o.append(slot.equals(LilypondTemplate.MUSIC) ? "voices" : "today"));
+        return out.toString();
+    }
+}
@@ -0,0 +1,93 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs a {@link LilypondWorkerPool} of one worker on {@code stand-in-worker.sh},
+ * a shell script that speaks the worker protocol and answers a job with
+ * output, an error, a crash or nothing at all, depending on its source.
+ */
+@DisabledOnOs(OS.WINDOWS)
+class LilypondWorkerPoolTest {
+
+    private LilypondWorkerPool pool;
+
+    @AfterEach
+    void closePool() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    @Test
+    void okReturnsTheFirstBookOfTheJob() throws Exception {
+        this.pool = start(Duration.ofSeconds(10));
+
+        LilypondRenderer.Result result = this.pool.render("{ c d e }");
+
+        assertEquals("pdf:{ c d e }", new String(result.pdf, StandardCharsets.UTF_8));
+        assertEquals("mid:{ c d e }", new String(result.midi, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void renderToFilesMovesTheOutputs(@TempDir Path dir) throws Exception {
+        this.pool = start(Duration.ofSeconds(10));
+
+        this.pool.renderToFiles("{ f g }", dir.resolve("a.pdf"), dir.resolve("a.mid"));
+
+        assertEquals("pdf:{ f g }", Files.readString(dir.resolve("a.pdf")));
+        assertEquals("mid:{ f g }", Files.readString(dir.resolve("a.mid")));
+    }
+
+    @Test
+    void errorKeepsTheWorker() throws Exception {
+        this.pool = start(Duration.ofSeconds(10));
+
+        IOException e = assertThrows(IOException.class, () -> this.pool.render("FAIL"));
+
+        assertTrue(e.getMessage().contains("parse-failed"), e.getMessage());
+        assertTrue(e.getMessage().contains("Processing output.ly"), e.getMessage());
+        assertEquals("pdf:{ a }", new String(this.pool.render("{ a }").pdf, StandardCharsets.UTF_8));
+        assertEquals(1, this.pool.getStartedWorkers());
+    }
+
+    @Test
+    void hangReplacesTheWorker() throws Exception {
+        this.pool = start(Duration.ofSeconds(2));
+
+        assertThrows(TimeoutException.class, () -> this.pool.render("HANG"));
+
+        assertEquals("pdf:{ b }", new String(this.pool.render("{ b }").pdf, StandardCharsets.UTF_8));
+        assertEquals(2, this.pool.getStartedWorkers());
+    }
+
+    @Test
+    void crashReplacesTheWorker() throws Exception {
+        this.pool = start(Duration.ofSeconds(10));
+
+        IOException e = assertThrows(IOException.class, () -> this.pool.render("CRASH"));
+
+        assertTrue(e.getMessage().contains("exited with code 3"), e.getMessage());
+        assertEquals("pdf:{ c }", new String(this.pool.render("{ c }").pdf, StandardCharsets.UTF_8));
+        assertEquals(2, this.pool.getStartedWorkers());
+    }
+
+    private static LilypondWorkerPool start(Duration timeout) throws Exception {
+        Path script = Paths.get(LilypondWorkerPoolTest.class.getResource("/stand-in-worker.sh").toURI());
+        return new LilypondWorkerPool(List.of("sh", script.toString()), 1, timeout);
+    }
+}
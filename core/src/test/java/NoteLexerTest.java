@@ -0,0 +1,160 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Splits single lines into the tokens of a {@link NoteLexer} and checks
+ * their spans, counts and weights, and the columns of syntax errors.
+ */
+class NoteLexerTest {
+
+    private final NoteLexer lexer = new NoteLexer();
+
+    @Test
+    void linkIsFollowedByItsMarkers() throws NoteSyntaxException {
+        assertEquals(List.of("LINK Beat", "MARK !", "BAR ||", "BREAK ?", "NESTED ####", "RAW +"),
+            tokens("[[Beat]] ! || ? #### +"));
+    }
+
+    @Test
+    void embedSpansTheTextBetweenTheBrackets() throws NoteSyntaxException {
+        assertEquals(List.of("EMBED Musik/Beat|alias"), tokens("![[Musik/Beat|alias]]"));
+        assertEquals("Musik/Beat.md", NoteLexer.target("![[ Musik/Beat |alias]]", 3, 20));
+        assertEquals("Beat.md", NoteLexer.target("[[Beat.md]]", 2, 9));
+    }
+
+    @Test
+    void markerCharactersInsideTheBracketsBelongToTheName() throws NoteSyntaxException {
+        assertEquals(List.of("LINK C++ ?!", "REPEAT *"), tokens("[[C++ ?!]] *"));
+    }
+
+    @Test
+    void textWithoutALinkHasNoTokens() throws NoteSyntaxException {
+        assertEquals(List.of(), tokens("just text + ? !"));
+        assertEquals(List.of(), tokens(""));
+    }
+
+    @Test
+    void repeatCountsAreRanges() throws NoteSyntaxException {
+        assertEquals(List.of(Repeat.DEFAULT_COUNT, Repeat.DEFAULT_COUNT), repeat("[[a]] *"));
+        assertEquals(List.of(4, 4), repeat("[[a]] *4"));
+        assertEquals(List.of(2, 8), repeat("[[a]] *2-8"));
+        assertEquals(List.of(2, 8), repeat("[[a]] *8-2"));
+        assertEquals(List.of(0, NoteLexer.MAX_COUNT), repeat("[[a]] *0-" + NoteLexer.MAX_COUNT));
+    }
+
+    @Test
+    void weightsMayHaveAFraction() throws NoteSyntaxException {
+        this.lexer.reset("[[a]] ~2.5 ~3 ~x");
+        assertTrue(this.lexer.next());
+
+        assertTrue(this.lexer.next());
+        assertEquals(NoteLexer.Type.WEIGHT, this.lexer.type());
+        assertEquals(2.5, this.lexer.weight());
+        assertTrue(this.lexer.next());
+        assertEquals(3.0, this.lexer.weight());
+        assertFalse(this.lexer.next());
+        assertNull(this.lexer.type());
+    }
+
+    @Test
+    void headingEndsBeforeItsOptions() throws NoteSyntaxException {
+        this.lexer.reset("# Verse {norepeat=2, batch, unknown}  ");
+
+        assertTrue(this.lexer.next());
+        assertEquals(NoteLexer.Type.HEADING, this.lexer.type());
+        assertEquals("# Verse", text());
+        assertTrue(this.lexer.next());
+        assertEquals(NoteLexer.Type.HISTORY, this.lexer.type());
+        assertEquals(2, this.lexer.min());
+        assertTrue(this.lexer.next());
+        assertEquals(NoteLexer.Type.BATCH, this.lexer.type());
+        assertFalse(this.lexer.next());
+    }
+
+    @Test
+    void historyWithoutACountCoversEveryChild() throws NoteSyntaxException {
+        this.lexer.reset("# Verse {norepeat}");
+        this.lexer.next();
+        this.lexer.next();
+
+        assertEquals(NoteLexer.Type.HISTORY, this.lexer.type());
+        assertEquals(Integer.MAX_VALUE, this.lexer.min());
+    }
+
+    @Test
+    void headingWithoutOptionsSpansTheLine() throws NoteSyntaxException {
+        assertEquals(List.of("HEADING # Verse [[not a link]] *"), tokens("# Verse [[not a link]] *"));
+    }
+
+    @Test
+    void countAboveTheMaximumNamesItsColumn() {
+        NoteSyntaxException e = assertThrows(NoteSyntaxException.class,
+            () -> tokens("[[a]] *" + (NoteLexer.MAX_COUNT + 1)));
+
+        assertEquals("Count " + (NoteLexer.MAX_COUNT + 1) + " above " + NoteLexer.MAX_COUNT
+            + " at column 8: [[a]] *" + (NoteLexer.MAX_COUNT + 1), e.getMessage());
+    }
+
+    @Test
+    void upperBoundOfARangeIsChecked() {
+        NoteSyntaxException e = assertThrows(NoteSyntaxException.class, () -> tokens("[[a]] *2-20000"));
+
+        assertTrue(e.getMessage().startsWith("Count 20000 above " + NoteLexer.MAX_COUNT + " at column 10"),
+            e.getMessage());
+    }
+
+    @Test
+    void numberTooLargeNamesItsColumn() {
+        NoteSyntaxException e = assertThrows(NoteSyntaxException.class, () -> tokens("[[a]] ! *99999999999"));
+
+        assertTrue(e.getMessage().startsWith("Number too large at column 10"), e.getMessage());
+        assertThrows(NoteSyntaxException.class, () -> tokens("# A {norepeat=99999999999}"));
+    }
+
+    @Test
+    void weightTooLargeIsRejected() {
+        NoteSyntaxException e = assertThrows(NoteSyntaxException.class, () -> tokens("[[a]] ~" + "9".repeat(400)));
+
+        assertTrue(e.getMessage().startsWith("Weight too large at column 8"), e.getMessage());
+    }
+
+    @Test
+    void resetStartsAFreshLine() throws NoteSyntaxException {
+        this.lexer.reset("# A {batch}");
+        this.lexer.next();
+
+        assertEquals(List.of("LINK b", "RAW +"), tokens("[[b]] +"));
+    }
+
+    /** Tokens of a line as their type and text */
+    private List<String> tokens(String line) throws NoteSyntaxException {
+        this.lexer.reset(line);
+        List<String> tokens = new ArrayList<>();
+        while (this.lexer.next()) {
+            tokens.add(this.lexer.type() + " " + text());
+        }
+        return tokens;
+    }
+
+    /** Count range of the only repeat marker of a line */
+    private List<Integer> repeat(String line) throws NoteSyntaxException {
+        this.lexer.reset(line);
+        while (this.lexer.next()) {
+            if (this.lexer.type() == NoteLexer.Type.REPEAT) {
+                return List.of(this.lexer.min(), this.lexer.max());
+            }
+        }
+        throw new AssertionError("No repeat marker in " + line);
+    }
+
+    private String text() {
+        return this.lexer.line().substring(this.lexer.start(), this.lexer.end());
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Builds small notes from an {@link InMemoryVault}, including notes that
+ * cannot be read, which are reported and left out of the build.
+ */
+class ObsidianBuilderTest {
+
+    private final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    private PrintStream stderr;
+
+    @BeforeEach
+    void captureErrors() {
+        this.stderr = System.err;
+        System.setErr(new PrintStream(this.errors, true, StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void restoreErrors() {
+        System.setErr(this.stderr);
+    }
+
+    @Test
+    void missingNestedNoteIsLeftOut() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Root.md", "# A\n[[Missing]] ####\n# B\n[[Beat]]");
+
+        Component root = build(vault, "Root.md");
+
+        assertEquals("\n![[Beat]]\n\n", root.print(new GenerationContext(1)));
+        assertTrue(errors().contains("Missing.md"), errors());
+    }
+
+    @Test
+    void nestedNoteWithBadCountIsLeftOut() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Bad.md", "[[Beat]]\n[[Beat]] *99999999999");
+        vault.put("Root.md", "# A\n[[Bad]] ####\n# B\n[[Beat]]");
+
+        Component root = build(vault, "Root.md");
+
+        assertEquals("\n![[Beat]]\n\n", root.print(new GenerationContext(1)));
+        assertTrue(errors().contains("Bad.md, line 2: Number too large at column 11"), errors());
+    }
+
+    @Test
+    void countAboveMaximumIsLeftOut() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Bad.md", "[[Beat]] *2-2000000000");
+        vault.put("Root.md", "[[Bad]] ####");
+
+        Component root = build(vault, "Root.md");
+
+        assertEquals("\n", root.print(new GenerationContext(1)));
+        assertTrue(errors().contains("Count 2000000000 above " + NoteLexer.MAX_COUNT + " at column 13"), errors());
+    }
+
+    @Test
+    void textAfterLinkKeepsNoMarkerWhitespace() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Root.md", "[[Beat]] *2 with a ! comment  ");
+
+        Component root = build(vault, "Root.md");
+
+        assertEquals("\\mark \\default\n![[Beat]] with a comment\n\\mark \\default\n![[Beat]] with a comment\n\n",
+            root.print(new GenerationContext(1)));
+        assertFalse(errors().contains("Exception"), errors());
+    }
+
+    private static Component build(InMemoryVault vault, String note) {
+        Component root = new ObsidianBuilder(vault).makeFromObsidian(note, "");
+        assertNotNull(root);
+        return root;
+    }
+
+    private String errors() {
+        return this.errors.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Counts and enumerates the outputs of small trees with an
+ * {@link OutputSpace} and compares them with the outputs written out by
+ * hand or summed term by term.
+ */
+class OutputSpaceTest {
+
+    @Test
+    void repeatSizeIsTheSumOverItsRange() {
+        for (int children = 0; children <= 5; children++) {
+            for (int min = 0; min <= 4; min++) {
+                for (int max = min; max <= 6; max++) {
+                    OutputSpace space = new OutputSpace(new Repeat(choice(children), min, max));
+
+                    BigInteger expected = BigInteger.ZERO;
+                    for (int k = min; k <= max; k++) {
+                        expected = expected.add(BigInteger.valueOf(children).pow(k));
+                    }
+                    assertEquals(expected, space.size(), children + " children, " + min + "-" + max);
+                }
+            }
+        }
+    }
+
+    @Test
+    void repeatEnumeratesEveryCountInOrder() {
+        OutputSpace space = new OutputSpace(new Repeat(choice(2), 0, 2));
+
+        assertEquals(List.of("", "a", "b", "aa", "ab", "ba", "bb"), space.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    void singleDerivationRepeatHasOneIndexPerCount() {
+        OutputSpace space = new OutputSpace(new Repeat(new StringComponent("x"), 1, 3));
+
+        assertEquals(List.of("x", "xx", "xxx"), space.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    void compositeMultipliesAndChoiceAdds() {
+        Composite root = new Composite();
+        root.add(choice(2));
+        VerticalComposite weighted = new VerticalComposite();
+        weighted.add(new StringComponent("x"), 1);
+        weighted.add(new StringComponent("never"), 0);
+        weighted.add(choice(2), 3);
+        root.add(weighted);
+
+        OutputSpace space = new OutputSpace(root);
+
+        assertEquals(BigInteger.valueOf(6), space.size());
+        assertEquals(List.of("a\nx\n", "a\na\n", "a\nb\n", "b\nx\n", "b\na\n", "b\nb\n"),
+            space.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    void wideRangeRendersAtBlockBoundaries() {
+        OutputSpace space = new OutputSpace(new Repeat(choice(2), 0, 5000));
+
+        BigInteger two = BigInteger.TWO;
+        assertEquals(two.pow(5001).subtract(BigInteger.ONE), space.size());
+        assertEquals("", space.get(BigInteger.ZERO));
+        // Counts 0 to 4999 hold 2^5000 - 1 indices, count 5000 starts right after
+        assertEquals("b".repeat(4999), space.get(two.pow(5000).subtract(two)));
+        assertEquals("a".repeat(5000), space.get(two.pow(5000).subtract(BigInteger.ONE)));
+        assertEquals("b".repeat(5000), space.get(space.size().subtract(BigInteger.ONE)));
+    }
+
+    @Test
+    void rangesSplitTheEnumeration() {
+        Composite root = new Composite();
+        root.add(new Repeat(choice(3), 1, 2));
+        root.add(choice(2));
+        OutputSpace space = new OutputSpace(root);
+        BigInteger half = space.size().shiftRight(1);
+
+        List<String> joined = Stream.concat(space.stream(BigInteger.ZERO, half), space.stream(half, space.size()))
+            .collect(Collectors.toList());
+
+        assertEquals(space.stream().collect(Collectors.toList()), joined);
+        Set<String> distinct = new HashSet<>(joined);
+        assertEquals(space.size().intValueExact(), distinct.size());
+    }
+
+    @Test
+    void samplesAreInTheSpace() {
+        OutputSpace space = new OutputSpace(new Repeat(choice(3), 2, 4));
+        Set<String> outputs = space.stream().collect(Collectors.toSet());
+        GenerationContext ctx = new GenerationContext(7);
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(outputs.contains(space.sample(ctx)));
+        }
+    }
+
+    @Test
+    void emptySpaceCannotBeSampled() {
+        VerticalComposite none = new VerticalComposite();
+        none.add(new StringComponent("a"), 0);
+        OutputSpace space = new OutputSpace(new Repeat(none, 1, 3));
+
+        assertEquals(BigInteger.ZERO, space.size());
+        assertThrows(IllegalStateException.class, () -> space.sampleIndex(new GenerationContext(1)));
+    }
+
+    @Test
+    void constrainedChoicesAreRejected() {
+        VerticalComposite v = choice(2);
+        v.setHistory(1);
+
+        assertThrows(IllegalArgumentException.class, () -> new OutputSpace(v));
+    }
+
+    /** Uniform choice between the first {@code n} letters */
+    private static VerticalComposite choice(int n) {
+        VerticalComposite v = new VerticalComposite();
+        for (int i = 0; i < n; i++) {
+            v.add(new StringComponent(String.valueOf((char) ('a' + i))));
+        }
+        if (n == 0) {
+            // No drawable child, so the choice has no derivation
+            v.add(new StringComponent("never"), 0);
+        }
+        return v;
+    }
+}
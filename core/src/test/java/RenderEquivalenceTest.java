@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the faster ways of rendering a tree, {@link RenderPlan},
+ * {@link ParallelRenderer} and a {@link SubtreeCache}, print exactly what
+ * {@link Component#print(GenerationContext)} prints for the same seed.
+ *
+ * <p>The trees are generated at random from sequences, weighted and uniform
+ * choices, fixed and ranged repeats and shared subtrees. Plans must draw
+ * the same numbers as the tree's own render on whatever JDK runs the build,
+ * so this test fails the build if they ever part ways.</p>
+ */
+class RenderEquivalenceTest {
+
+    private static final int TREES = 200;
+    private static final int SEEDS = 20;
+
+    /** Splits every subtree into its own task */
+    private static ForkJoinPool pool;
+    private static ParallelRenderer parallel;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+        parallel = new ParallelRenderer(pool, 1);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void unfrozenTreesRenderAlike() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int t = 0; t < TREES; t++) {
+            Component root = generate(random, new ArrayList<>(), 4);
+            assertAlike(root, t);
+        }
+    }
+
+    @Test
+    void frozenTreesRenderAlike() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int t = 0; t < TREES; t++) {
+            Component root = generate(random, new ArrayList<>(), 4);
+            root.freeze();
+            assertAlike(root, t);
+        }
+    }
+
+    @Test
+    void cachedRendersFollowMutations() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int t = 0; t < TREES; t++) {
+            List<Composite> composites = new ArrayList<>();
+            Component root = generate(random, composites, 4);
+            SubtreeCache cache = new SubtreeCache();
+            for (int round = 0; round < 4; round++) {
+                for (long seed = 0; seed < SEEDS; seed++) {
+                    assertEquals(root.print(new GenerationContext(seed)),
+                        root.print(new GenerationContext(seed).withCache(cache)),
+                        "tree " + t + ", round " + round + ", seed " + seed);
+                }
+                if (!composites.isEmpty()) {
+                    Composite c = composites.get(random.nextInt(composites.size()));
+                    c.add(new StringComponent("m" + round + " "));
+                }
+            }
+        }
+    }
+
+    private static void assertAlike(Component root, int tree) {
+        RenderPlan plan = RenderPlan.compile(root);
+        SubtreeCache cache = new SubtreeCache();
+        for (long seed = 0; seed < SEEDS; seed++) {
+            String expected = root.print(new GenerationContext(seed));
+            String where = "tree " + tree + ", seed " + seed;
+            assertEquals(expected, plan.print(seed), "plan, " + where);
+            assertEquals(expected, parallel.print(root, new GenerationContext(seed)), "parallel, " + where);
+            assertEquals(expected, root.print(new GenerationContext(seed).withCache(cache)), "cached, " + where);
+        }
+    }
+
+    /**
+     * Generates a random tree. Every composite is added to {@code composites}
+     * once its children are complete, so sharing one never makes a cycle.
+     */
+    private static Component generate(SplittableRandom random, List<Composite> composites, int depth) {
+        if (depth == 0 || random.nextInt(5) == 0) {
+            return new StringComponent(word(random));
+        }
+        switch (random.nextInt(6)) {
+            case 0:
+            case 1: {
+                Composite c = new Composite();
+                int n = 1 + random.nextInt(4);
+                for (int i = 0; i < n; i++) {
+                    c.add(child(random, composites, depth));
+                }
+                composites.add(c);
+                return c;
+            }
+            case 2:
+            case 3: {
+                VerticalComposite c = new VerticalComposite();
+                boolean weighted = random.nextBoolean();
+                int n = 1 + random.nextInt(4);
+                for (int i = 0; i < n; i++) {
+                    if (weighted) {
+                        c.add(child(random, composites, depth), 0.5 + random.nextInt(4));
+                    } else {
+                        c.add(child(random, composites, depth));
+                    }
+                }
+                if (n == 1 && random.nextBoolean()) {
+                    // A single child can be compiled even with a history
+                    c.setHistory(1);
+                }
+                composites.add(c);
+                return c;
+            }
+            case 4:
+                return new Repeat(child(random, composites, depth), random.nextInt(4));
+            default: {
+                int min = random.nextInt(3);
+                return new Repeat(child(random, composites, depth), min, min + random.nextInt(4));
+            }
+        }
+    }
+
+    /** Returns a new subtree, or now and then one generated before */
+    private static Component child(SplittableRandom random, List<Composite> composites, int depth) {
+        if (!composites.isEmpty() && random.nextInt(8) == 0) {
+            return composites.get(random.nextInt(composites.size()));
+        }
+        return generate(random, composites, depth - 1);
+    }
+
+    private static String word(SplittableRandom random) {
+        return (char) ('a' + random.nextInt(26)) + Integer.toString(random.nextInt(100)) + " ";
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the bounds of a {@link SubtreeCache}: entries of subtrees that
+ * render to nothing still count towards its size, and subtrees that are
+ * no longer referenced elsewhere are not kept alive by it.
+ */
+class SubtreeCacheTest {
+
+    @Test
+    void emptyRendersAreBounded() {
+        SubtreeCache cache = new SubtreeCache(10 * SubtreeCache.ENTRY_OVERHEAD);
+
+        for (int i = 0; i < 1000; i++) {
+            Repeat nothing = new Repeat(new StringComponent("a"), 0);
+            assertEquals("", nothing.print(new GenerationContext(i).withCache(cache)));
+        }
+
+        assertEquals(10, cache.getEntries());
+        assertEquals(10L * SubtreeCache.ENTRY_OVERHEAD, cache.getChars());
+    }
+
+    @Test
+    void textTooLargeForTheBoundIsNotCached() {
+        SubtreeCache cache = new SubtreeCache(SubtreeCache.ENTRY_OVERHEAD + 2);
+        Composite c = new Composite();
+        c.add(new StringComponent("abc"));
+
+        c.print(new GenerationContext(1).withCache(cache));
+
+        assertEquals(0, cache.getEntries());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void removedSubtreeIsCollected() throws InterruptedException {
+        SubtreeCache cache = new SubtreeCache();
+        Composite root = new Composite();
+        Composite replaced = new Composite();
+        replaced.add(new StringComponent("old "));
+        root.add(replaced);
+        replaced.print(new GenerationContext(1).withCache(cache));
+        assertEquals(1, cache.getEntries());
+
+        root.remove(replaced);
+        replaced = null;
+
+        for (int i = 0; i < 100 && cache.getEntries() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getChars());
+        assertTrue(root.print(new GenerationContext(1).withCache(cache)).isBlank());
+    }
+}
@@ -0,0 +1,156 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Deals the children of batch-sampled {@link VerticalComposite}s to the
+ * variants of a {@link VariantBatch}.
+ */
+class VariantBatchTest {
+
+    @Test
+    void variantsGetDistinctChildren() {
+        for (long seed = 0; seed < 20; seed++) {
+            Component root = dealt(5);
+            VariantBatch batch = new VariantBatch(root, seed, 5);
+            Set<String> outputs = new HashSet<>();
+
+            for (int i = 0; i < batch.size(); i++) {
+                outputs.add(root.print(batch.context(i)));
+            }
+
+            assertEquals(5, outputs.size(), "seed " + seed);
+        }
+    }
+
+    @Test
+    void everyPassThroughTheDeckHoldsEveryChild() {
+        VerticalComposite v = choice(3);
+        v.setBatchSampling(true);
+        Repeat root = new Repeat(v, 4);
+        VariantBatch batch = new VariantBatch(root, 11, 3);
+
+        // Draw k of variant i takes card k * 3 + i, so each draw is one pass
+        List<String> rendered = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            rendered.add(root.print(batch.context(i)));
+        }
+        for (int k = 0; k < 4; k++) {
+            Set<Character> pass = new HashSet<>();
+            for (String variant : rendered) {
+                pass.add(variant.charAt(k));
+            }
+            assertEquals(Set.of('a', 'b', 'c'), pass, "draw " + k);
+        }
+    }
+
+    @Test
+    void variantsDoNotDependOnRenderOrderOrThread() throws Exception {
+        VariantGenerator generator = new VariantGenerator(dealt(4));
+        VariantBatch batch = generator.batch(3, 8);
+        List<String> forward = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            forward.add(render(generator, batch, i));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            VariantBatch again = generator.batch(3, 8);
+            List<Future<String>> backward = new ArrayList<>();
+            for (int i = again.size() - 1; i >= 0; i--) {
+                int variant = i;
+                backward.add(0, pool.submit(() -> render(generator, again, variant)));
+            }
+            for (int i = 0; i < forward.size(); i++) {
+                assertEquals(forward.get(i), backward.get(i).get(), "variant " + i);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void zeroWeightChildrenAreNeverDealt() {
+        VerticalComposite v = new VerticalComposite();
+        v.add(new StringComponent("a"), 1);
+        v.add(new StringComponent("never"), 0);
+        v.add(new StringComponent("b"), 5);
+        v.setBatchSampling(true);
+        VariantBatch batch = new VariantBatch(v, 2, 6);
+
+        Set<String> outputs = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            outputs.add(v.print(batch.context(i)));
+        }
+
+        assertEquals(Set.of("a", "b"), outputs);
+    }
+
+    @Test
+    void allZeroWeightsCannotBeDealt() {
+        VerticalComposite v = new VerticalComposite();
+        v.add(new StringComponent("never"), 0);
+        v.setBatchSampling(true);
+        VariantBatch batch = new VariantBatch(v, 1, 2);
+
+        assertThrows(IllegalStateException.class, () -> v.print(batch.context(0)));
+    }
+
+    @Test
+    void rendersOutsideABatchDrawAsUsual() {
+        Component root = dealt(3);
+
+        assertEquals(root.print(new GenerationContext(9)), root.print(new GenerationContext(9)));
+        assertFalse(root.print(new GenerationContext(9)).isEmpty());
+    }
+
+    @Test
+    void batchKnowsItsSeeds() {
+        VariantBatch batch = new VariantBatch(dealt(2), 42, 3);
+
+        assertEquals(42, batch.getSeed());
+        assertEquals(3, batch.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> batch.context(3));
+        assertEquals(0, new VariantBatch(dealt(2), 42, 0).size());
+    }
+
+    @Test
+    void negativeSizeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new VariantBatch(dealt(2), 1, -1));
+    }
+
+    /** Batch-sampled choice between {@code n} letters below a fixed header */
+    private static Component dealt(int n) {
+        VerticalComposite v = choice(n);
+        v.setBatchSampling(true);
+        Composite root = new Composite();
+        root.add(new StringComponent("header"));
+        root.add(v);
+        return root;
+    }
+
+    private static String render(VariantGenerator generator, VariantBatch batch, int variant) throws IOException {
+        StringBuilder out = new StringBuilder();
+        generator.generate(batch, variant, out);
+        return out.toString();
+    }
+
+    /** Uniform choice between the first {@code n} letters */
+    private static VerticalComposite choice(int n) {
+        VerticalComposite v = new VerticalComposite();
+        for (int i = 0; i < n; i++) {
+            v.add(new StringComponent(String.valueOf((char) ('a' + i))));
+        }
+        return v;
+    }
+}
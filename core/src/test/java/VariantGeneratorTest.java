@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Generates variants from the residual tree of a {@link VariantGenerator}
+ * and compares them with renders of the original tree.
+ */
+class VariantGeneratorTest {
+
+    private static final int SEEDS = 100;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void variantsMatchTheOriginalTree() {
+        Component root = tree(new StringComponent("fixed "));
+        VariantGenerator generator = new VariantGenerator(root);
+
+        for (long seed = 0; seed < SEEDS; seed++) {
+            assertEquals(root.print(new GenerationContext(seed)), generator.generate(seed), "seed " + seed);
+        }
+    }
+
+    @Test
+    void streamedVariantsMatchTheStringOnes() throws IOException {
+        VariantGenerator generator = new VariantGenerator(tree(new StringComponent("fixed ")));
+
+        for (long seed = 0; seed < SEEDS; seed++) {
+            StringBuilder out = new StringBuilder();
+            generator.generate(seed, out);
+            assertEquals(generator.generate(seed), out.toString(), "seed " + seed);
+        }
+    }
+
+    @Test
+    void pureSubtreesAreRenderedOnConstruction() {
+        StringComponent fixed = new StringComponent("fixed ");
+        Component root = tree(fixed);
+        VariantGenerator generator = new VariantGenerator(root);
+        String before = generator.generate(7);
+
+        fixed.setContent("changed ");
+
+        assertEquals(before, generator.generate(7));
+        assertEquals(before.replace("fixed ", "changed "), root.print(new GenerationContext(7)));
+    }
+
+    @Test
+    void fileRegionsStayLazy() throws IOException {
+        Path file = this.dir.resolve("region.txt");
+        Files.writeString(file, "old");
+        Composite root = new Composite();
+        root.add(new FileRegionComponent(file));
+        root.add(tree(new StringComponent("fixed ")));
+        VariantGenerator generator = new VariantGenerator(root);
+
+        Files.writeString(file, "new");
+
+        assertEquals(root.print(new GenerationContext(3)), generator.generate(3));
+        assertEquals("new\n", generator.generate(3).substring(0, 4));
+    }
+
+    @Test
+    void filesHoldTheVariantsOfTheirSeeds() throws Exception {
+        VariantGenerator generator = new VariantGenerator(tree(new StringComponent("fixed ")));
+        long[] seeds = VariantGenerator.seeds(42, 8);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Path> files = generator.generateToFiles(seeds, i -> this.dir.resolve("variant-" + i + ".txt"), pool);
+
+            assertEquals(seeds.length, files.size());
+            for (int i = 0; i < seeds.length; i++) {
+                assertEquals(this.dir.resolve("variant-" + i + ".txt"), files.get(i));
+                assertEquals(generator.generate(seeds[i]), Files.readString(files.get(i)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void seedsOfALargerBatchExtendASmallerOne() {
+        long[] small = VariantGenerator.seeds(5, 3);
+        long[] large = VariantGenerator.seeds(5, 6);
+
+        assertArrayEquals(small, Arrays.copyOf(large, 3));
+        assertEquals(6, Arrays.stream(large).distinct().count());
+    }
+
+    /**
+     * Builds a tree of uniform and weighted choices, ranged repeats, a choice
+     * avoiding its last draw and a subtree shared by two parents, around the
+     * given pure leaf.
+     */
+    private static Component tree(StringComponent fixed) {
+        Composite pure = new Composite();
+        pure.add(fixed);
+        pure.add(new Repeat(new StringComponent("x"), 3));
+
+        VerticalComposite uniform = new VerticalComposite();
+        uniform.add(new StringComponent("a "));
+        uniform.add(pure);
+        uniform.add(new StringComponent("c "));
+
+        VerticalComposite weighted = new VerticalComposite();
+        weighted.add(new StringComponent("light "), 1);
+        weighted.add(new Repeat(uniform, 0, 3), 3);
+        weighted.add(new StringComponent("never "), 0);
+
+        VerticalComposite avoiding = new VerticalComposite();
+        avoiding.add(new StringComponent("p "));
+        avoiding.add(new StringComponent("q "));
+        avoiding.add(new StringComponent("r "));
+        avoiding.setHistory(1);
+
+        Composite root = new Composite();
+        root.add(pure);
+        root.add(weighted);
+        root.add(new Repeat(avoiding, 2, 5));
+        root.add(uniform);
+        return root;
+    }
+}
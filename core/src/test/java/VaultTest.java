@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Resolves, opens and dates notes in the three {@link Vault}
+ * implementations, including notes that share a file name.
+ */
+class VaultTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fileSystemVaultResolvesPathsAndNames() throws IOException {
+        write("Musik/Beat.md", "[[kick]]");
+        FileSystemVault vault = new FileSystemVault(this.dir);
+
+        Path byName = vault.resolve("Beat.md");
+
+        assertEquals(vault.resolve("Musik/Beat.md"), byName);
+        assertEquals("[[kick]]", read(vault, byName));
+        assertNotNull(vault.lastModified(byName));
+        assertEquals(byName, vault.localFile(byName));
+    }
+
+    @Test
+    void sharedNameResolvesToTheShallowestNote() throws IOException {
+        write("A/B/Beat.md", "deep");
+        write("Z/Beat.md", "shallow");
+        write("B/Beat.md", "first");
+
+        assertEquals("first", read(new FileSystemVault(this.dir), "Beat.md"));
+
+        write("Beat.md", "root");
+        assertEquals("root", read(new FileSystemVault(this.dir), "Beat.md"));
+    }
+
+    @Test
+    void reindexPicksUpNewNotes() throws IOException {
+        write("Musik/Beat.md", "old");
+        FileSystemVault vault = new FileSystemVault(this.dir);
+        write("Beat.md", "new");
+
+        assertEquals("old", read(vault, "Beat.md"));
+        vault.reindex();
+        assertEquals("new", read(vault, "Beat.md"));
+    }
+
+    @Test
+    void hiddenFoldersAreNotIndexed() throws IOException {
+        write(".obsidian/Beat.md", "settings");
+        write("Notes/Beat.md", "note");
+
+        assertEquals("note", read(new FileSystemVault(this.dir), "Beat.md"));
+    }
+
+    @Test
+    void missingNoteResolvesButDoesNotOpen() {
+        FileSystemVault vault = new FileSystemVault(this.dir);
+        Path missing = vault.resolve("Missing.md");
+
+        assertNull(vault.lastModified(missing));
+        assertThrows(NoSuchFileException.class, () -> read(vault, missing));
+    }
+
+    @Test
+    void defaultVaultNeedsADirectory() {
+        assumeTrue(System.getProperty(FileSystemVault.ROOT_PROPERTY) == null
+            && System.getenv(FileSystemVault.ROOT_VARIABLE) == null);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, FileSystemVault::getDefault);
+
+        assertTrue(e.getMessage().contains(FileSystemVault.ROOT_VARIABLE), e.getMessage());
+    }
+
+    @Test
+    void zipVaultReadsAFolderOfTheArchive() throws IOException {
+        Path zip = this.dir.resolve("vault.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            entry(out, "vault/Root.md", "[[Beat]] ####");
+            entry(out, "vault/Musik/Beat.md", "[[kick]]");
+            entry(out, "other/Beat.md", "outside");
+        }
+
+        try (ZipVault vault = new ZipVault(zip, "/vault")) {
+            Path beat = vault.resolve("Beat.md");
+
+            assertEquals("[[kick]]", read(vault, beat));
+            assertNull(vault.localFile(beat));
+            assertEquals("![[kick]]", new ObsidianBuilder(vault).makeFromObsidian("Root.md", "")
+                .print(new GenerationContext(1)).strip());
+        }
+    }
+
+    @Test
+    void inMemoryVaultResolvesLikeTheFileSystem() throws IOException {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Z/Beat.md", "z");
+        vault.put("A/B/Beat.md", "deep");
+        vault.put("B/Beat.md", "b");
+
+        assertEquals("b", read(vault, "Beat.md"));
+
+        vault.remove("B/Beat.md");
+        assertEquals("z", read(vault, "Beat.md"));
+        vault.remove("Z/Beat.md");
+        assertEquals("deep", read(vault, "Beat.md"));
+    }
+
+    @Test
+    void inMemoryVaultDatesEveryPut() {
+        InMemoryVault vault = new InMemoryVault();
+        vault.put("Beat.md", "one");
+        Path beat = vault.resolve("Beat.md");
+        FileTime first = vault.lastModified(beat);
+
+        vault.put("Beat.md", "two");
+
+        assertTrue(vault.lastModified(beat).compareTo(first) > 0);
+    }
+
+    private void write(String name, String text) throws IOException {
+        Path file = this.dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+    }
+
+    private static String read(Vault vault, String name) throws IOException {
+        return read(vault, vault.resolve(name));
+    }
+
+    private static String read(Vault vault, Path note) throws IOException {
+        try (Reader reader = vault.open(note)) {
+            return new BufferedReader(reader).lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    private static void entry(ZipOutputStream out, String name, String text) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+}
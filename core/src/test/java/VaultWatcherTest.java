@@ -0,0 +1,109 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Edits a vault on disk while a {@link VaultWatcher} watches it, and checks
+ * the trees handed to the sink after each edit.
+ */
+class VaultWatcherTest {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @TempDir
+    Path dir;
+
+    private VaultWatcher watcher;
+    private Thread thread;
+    private final BlockingQueue<Component> trees = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void writeVault() throws IOException {
+        Files.createDirectories(this.dir.resolve("Musik"));
+        write("Root.md", "[[Beat]] ####");
+        write("Musik/Beat.md", "[[kick]]");
+    }
+
+    @AfterEach
+    void stopWatcher() throws Exception {
+        if (this.watcher != null) {
+            this.watcher.close();
+            this.thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+    }
+
+    @Test
+    void modifiedNoteIsRebuilt() throws Exception {
+        assertEquals("![[kick]]", render(start()));
+
+        write("Musik/Beat.md", "[[snare]]");
+
+        assertEquals("![[snare]]", render(next()));
+    }
+
+    @Test
+    void createdNoteShadowingLinkIsPickedUp() throws Exception {
+        assertEquals("![[kick]]", render(start()));
+
+        // The root note is unchanged, but its link now resolves to the new note
+        write("Beat.md", "[[clap]]");
+
+        assertEquals("![[clap]]", render(next()));
+    }
+
+    @Test
+    void createdMissingNoteIsPickedUp() throws Exception {
+        write("Root.md", "[[Later]] ####");
+        assertEquals("", render(start()));
+
+        write("Later.md", "[[hat]]");
+
+        assertEquals("![[hat]]", render(next()));
+    }
+
+    private Component start() throws Exception {
+        this.watcher = new VaultWatcher(new FileSystemVault(this.dir));
+        Component initial = this.watcher.watch("Root.md", this.trees::add);
+        this.thread = new Thread(this.watcher, "vault-watcher");
+        this.thread.start();
+        assertEquals(initial, next());
+        return initial;
+    }
+
+    private Component next() throws InterruptedException {
+        Component tree = this.trees.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(tree, "no rebuild within " + TIMEOUT_SECONDS + " s");
+        return tree;
+    }
+
+    /**
+     * Writes a note and moves its modification time forward, so that
+     * coarse file system clocks still see the change.
+     */
+    private void write(String name, String text) throws IOException {
+        Path file = this.dir.resolve(name);
+        FileTime before = Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+        Files.writeString(file, text);
+        if (before != null) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(before.toMillis() + 1000));
+        }
+    }
+
+    /**
+     * Renders a tree without the line breaks of its composites.
+     */
+    private static String render(Component tree) {
+        return tree.print(new GenerationContext(1)).strip();
+    }
+}
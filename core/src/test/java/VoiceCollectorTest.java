@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Feeds rendered LilyPond snippets into a {@link VoiceCollector} in chunks
+ * and compares the collected voices with those of the regex LilyPond used
+ * to run over the whole document.
+ */
+class VoiceCollectorTest {
+
+    /** Voice definitions as LilyPond used to match them */
+    private static final Pattern OLD_VOICE = Pattern.compile("(voice\\w+)\\s*=\\s*\\{([\\s\\S]*?)\\}",
+        Pattern.MULTILINE);
+
+    private static final String[] NOISE = {
+        " ", "\n", "text", "voice", "A", "=", "}", "_x9", "`", "```", "```lily\n", "lil", "% note", "\"quoted\"",
+    };
+
+    private static final String[] BODY = {
+        "c'4", " ", "\n", "d8 e", "<e g>2", "\\relative", "```lily\n", "```", "r2.", "\\tuplet 3/2",
+    };
+
+    @Test
+    void collectsTheSameVoicesAsTheOldRegex() throws IOException {
+        Random random = new Random(21);
+        for (int run = 0; run < 2000; run++) {
+            String document = document(random);
+
+            assertEquals(oldVoices(document), inChunks(document, random), document);
+        }
+    }
+
+    @Test
+    void voicesKeepTheOrderOfTheirFirstDefinition() throws IOException {
+        VoiceCollector voices = collect("voiceB = { b1 }\nvoiceA = { a1 }\nvoiceB = { b2 }");
+
+        StringBuilder out = new StringBuilder();
+        voices.appendTo(out);
+
+        assertEquals("voiceB = {\n  b1\n  b2\n}\n\nvoiceA = {\n  a1\n}\n\n", out.toString());
+    }
+
+    @Test
+    void nestedBracesDoNotEndABody() {
+        assertEquals(Map.of("voiceA", List.of("\\tuplet 3/2 { c8 d e } f4")),
+            collect("voiceA = { \\tuplet 3/2 { c8 d e } f4 }").getVoices());
+    }
+
+    @Test
+    void bracesInStringsAndCommentsDoNotEndABody() {
+        String body = "c4^\"}\" d4 % }\n e4 %{ } %} f4 \"\\\"}\"";
+
+        assertEquals(Map.of("voiceA", List.of(body)), collect("voiceA = {" + body + "}").getVoices());
+    }
+
+    @Test
+    void fencesAreRemoved() {
+        assertEquals(Map.of("voiceA", List.of("c4")), collect("```lily\nvoiceA = { c4 }\n```").getVoices());
+        assertEquals(Map.of("voiceA", List.of("lil c4")), collect("voiceA = { ```lil c4 }").getVoices());
+    }
+
+    @Test
+    void openDefinitionIsLeftOut() {
+        assertEquals(Map.of(), collect("voiceA = { c4 d4").getVoices());
+    }
+
+    @Test
+    void textOutsideOfDefinitionsIsDropped() {
+        assertEquals(Map.of("voiceLead", List.of("a")),
+            collect("voice = { x }\nmyvoice = x\nmyvoiceLead = { a }\nvoiceB = c").getVoices());
+    }
+
+    /** Random definitions without nested braces, strings or comments, between noise */
+    private static String document(Random random) {
+        StringBuilder out = new StringBuilder();
+        for (int i = random.nextInt(12); i > 0; i--) {
+            if (random.nextBoolean()) {
+                out.append(NOISE[random.nextInt(NOISE.length)]);
+                continue;
+            }
+            out.append("voice").append((char) ('A' + random.nextInt(3)));
+            out.append(random.nextBoolean() ? " = " : "=").append(random.nextBoolean() ? "{" : "{\n");
+            for (int j = random.nextInt(5); j > 0; j--) {
+                out.append(BODY[random.nextInt(BODY.length)]);
+            }
+            out.append('}');
+        }
+        return out.toString();
+    }
+
+    private static Map<String, List<String>> oldVoices(String document) {
+        String raw = document.replace("```lily", "").replace("```", "");
+        Map<String, List<String>> voices = new LinkedHashMap<>();
+        Matcher matcher = OLD_VOICE.matcher(raw);
+        while (matcher.find()) {
+            voices.computeIfAbsent(matcher.group(1), k -> new ArrayList<>()).add(matcher.group(2).trim());
+        }
+        return voices;
+    }
+
+    private static Map<String, List<String>> inChunks(String document, Random random) {
+        VoiceCollector voices = new VoiceCollector();
+        int at = 0;
+        while (at < document.length()) {
+            int end = Math.min(document.length(), at + 1 + random.nextInt(8));
+            if (end - at == 1 && random.nextBoolean()) {
+                voices.append(document.charAt(at));
+            } else {
+                voices.append(document, at, end);
+            }
+            at = end;
+        }
+        return voices.getVoices();
+    }
+
+    private static VoiceCollector collect(String text) {
+        return new VoiceCollector().append(text);
+    }
+}
@@ -0,0 +1,19 @@
+#!/bin/sh
+# Stand-in for a LilyPond process of LilypondRenderer, called as
+# "<script> -o <prefix> -". What it does depends on the source:
+#   HANG   records its process id in pids/ next to the script and never exits
+#   else   writes the source to <prefix>.pdf, its working directory to
+#          <prefix>.mid and leaves a log behind like LilyPond does
+
+prefix=$2
+source=$(cat)
+echo "Processing standard input"
+case $source in
+    *HANG*)
+        echo $$ > "$(dirname "$0")/pids/$$"
+        exec sleep 60
+        ;;
+esac
+printf 'pdf:%s' "$source" > "$prefix.pdf"
+printf '%s' "$(pwd)" > "$prefix.mid"
+echo "done" > "$prefix.log"
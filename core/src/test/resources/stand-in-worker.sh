@@ -0,0 +1,39 @@
+#!/bin/sh
+# Stand-in for a LilyPond worker of LilypondWorkerPool. What it does with a
+# job depends on the source:
+#   HANG   never answers
+#   CRASH  exits with code 3
+#   FAIL   answers with an error
+#   else   writes the source to <name>.pdf and <name>.mid, and a second
+#          book to <name>-1.pdf like LilyPond does for further books
+
+tab=$(printf '\t')
+echo "@composite ready"
+while IFS= read -r line; do
+    if [ "$line" = ping ]; then
+        echo "@composite pong"
+        continue
+    fi
+    directory=${line%%"$tab"*}
+    rest=${line#*"$tab"}
+    file=${rest%%"$tab"*}
+    name=${rest#*"$tab"}
+    cd "$directory" || exit 2
+    echo "Processing $file" >&2
+    case $(cat "$file") in
+        *HANG*)
+            sleep 60
+            ;;
+        *CRASH*)
+            exit 3
+            ;;
+        *FAIL*)
+            echo "@composite error parse-failed"
+            continue
+            ;;
+    esac
+    printf 'pdf:%s' "$(cat "$file")" > "$name.pdf"
+    printf 'mid:%s' "$(cat "$file")" > "$name.mid"
+    printf 'second book' > "$name-1.pdf"
+    echo "@composite ok"
+done
@@ -1,76 +1,79 @@
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.*;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.*;
-import java.util.regex.*;
 
 public class LilyPond implements Component {
 
+    private static final String TEMPLATE = "Musik/Template.md";
+
     private final Component content;
+    private final Vault vault;
+
+    /** File every assembled score is also written to, or null */
+    private volatile Path debugFile;
 
     public LilyPond(Component content) {
-        this.content = content;
+        this(content, FileSystemVault.getDefault());
     }
 
-    @Override
-    public String print() {
-        try {
-            Path templatePath = Paths.get(
-                "/Users/konradbogen/Library/Mobile Documents/com~apple~CloudDocs/Obsidian/konrad/Musik/Template.md"
-            );
-            String template = Files.readString(templatePath);
-
-            String raw = content.print()
-                .replace("```lily", "")
-                .replace("```", "");
-
-            // Preserve insertion order
-            Map<String, List<String>> voices = new LinkedHashMap<>();
-
-            // Match: voiceName = { ... }
-            Pattern pattern = Pattern.compile(
-                "(voice\\w+)\\s*=\\s*\\{([\\s\\S]*?)\\}",
-                Pattern.MULTILINE
-            );
-
-            Matcher matcher = pattern.matcher(raw);
+    /** @param vault vault holding {@value #TEMPLATE} */
+    public LilyPond(Component content, Vault vault) {
+        this.content = content;
+        this.vault = vault;
+    }
 
-            while (matcher.find()) {
-                String voiceName = matcher.group(1);
-                String body = matcher.group(2).trim();
+    /**
+     * Also writes every assembled score to a file, for inspecting the
+     * LilyPond input. Off by default.
+     *
+     * @param debugFile file to write, for example {@code lily}, or null to write none
+     */
+    public void setDebugFile(Path debugFile) {
+        this.debugFile = debugFile;
+    }
 
-                voices.computeIfAbsent(voiceName, k -> new ArrayList<>())
-                      .add(body);
-            }
+    @Override
+    public void freeze() {
+        content.freeze();
+    }
 
-            // Assemble final LilyPond voice definitions
-            StringBuilder assembled = new StringBuilder();
+    @Override
+    public void render(Appendable out, GenerationContext ctx) throws IOException {
+        long start = Metrics.start(Metrics.Stage.ASSEMBLE);
+        try {
+            assemble(out, ctx);
+        } finally {
+            Metrics.stop(Metrics.Stage.ASSEMBLE, start);
+        }
+    }
 
-            for (Map.Entry<String, List<String>> entry : voices.entrySet()) {
-                assembled.append(entry.getKey()).append(" = {\n");
-                for (String block : entry.getValue()) {
-                    assembled.append("  ").append(block).append("\n");
-                }
-                assembled.append("}\n\n");
+    private void assemble(Appendable out, GenerationContext ctx) throws IOException {
+        LilypondTemplate template = LilypondTemplate.load(vault, vault.resolve(TEMPLATE));
+
+        // The voices must be complete before the template reaches the music slot
+        VoiceCollector voices = new VoiceCollector();
+        content.render(voices, ctx);
+        String date = LocalDate.now().toString();
+        LilypondTemplate.Filler filler = (slot, o) -> {
+            if (slot.equals(LilypondTemplate.MUSIC)) {
+                voices.appendTo(o);
+            } else if (slot.equals(LilypondTemplate.DATE)) {
+                o.append(date);
             }
+        };
 
-            String result = template
-                .replace("####MUSICGOESHERE####", assembled.toString())
-                .replace("###DATEGOESHERE###", LocalDate.now().toString());
-
-            Path out = Paths.get("lily");
-            Files.writeString(
-                out,
-                result,
-                StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING
-            );
-
-            return result;
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        Path debug = debugFile;
+        if (debug == null) {
+            template.render(out, filler);
+            return;
+        }
+        StringBuilder result = new StringBuilder();
+        template.render(result, filler);
+        try (Writer writer = Files.newBufferedWriter(debug, StandardCharsets.UTF_8)) {
+            writer.append(result);
         }
+        out.append(result);
     }
 }
@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of LilyPond renders.
+ *
+ * <p>An entry is keyed by the SHA-256 hash of the LilyPond version, the
+ * flags describing how the renderer runs LilyPond and the final source,
+ * so a score is only rendered again when one of them changes. Renders
+ * by a worker pool and by a process per render therefore never share
+ * entries. Entries are single files below
+ * the cache directory, {@code ab/abcdef….entry}, holding the length of the
+ * PDF, the PDF and the MIDI bytes. They are written to a temporary file
+ * and moved into place atomically, so readers, including other processes
+ * sharing the directory, never see half an entry.</p>
+ *
+ * <p>When the entries grow larger than the size limit, the least recently
+ * used ones are deleted. Use is tracked through the files' modification
+ * times, so the order survives restarts. Renders of the same source that
+ * are requested while one of them is running wait for it instead of
+ * starting LilyPond again.</p>
+ */
+public final class LilypondOutputCache {
+
+    /** Renders a source on a miss */
+    @FunctionalInterface
+    public interface Renderer {
+        LilypondRenderer.Result render(String lilySource) throws IOException, InterruptedException, TimeoutException;
+    }
+
+    private static final String SUFFIX = ".entry";
+    private static final String TEMPORARY = ".tmp";
+
+    /** Longest time LilyPond may take to report its version */
+    static final Duration VERSION_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final String version;
+
+    /** Known entries by key */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Renders of missed keys that are still running */
+    private final Map<String, CompletableFuture<LilypondRenderer.Result>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Size and last use of an entry file */
+    private static final class Entry {
+        final long size;
+        volatile long used;
+
+        Entry(long size, long used) {
+            this.size = size;
+            this.used = used;
+        }
+    }
+
+    /**
+     * Opens a cache for the renders of a LilyPond executable, keyed by the
+     * version it reports.
+     *
+     * @param directory          directory the entries are stored in, created if missing
+     * @param maxBytes           size the entries may take up before old ones are evicted
+     * @param lilypondExecutable path to lilypond executable
+     * @return the opened cache
+     * @throws IOException if the directory cannot be read or LilyPond does not report its
+     *                     version within {@link #VERSION_TIMEOUT}
+     */
+    public static LilypondOutputCache open(Path directory, long maxBytes, String lilypondExecutable)
+            throws IOException, InterruptedException {
+        return new LilypondOutputCache(directory, maxBytes, version(lilypondExecutable));
+    }
+
+    /**
+     * Opens a cache.
+     *
+     * @param directory directory the entries are stored in, created if missing
+     * @param maxBytes  size the entries may take up before old ones are evicted
+     * @param version   LilyPond version, part of every key
+     * @throws IOException if the directory cannot be created or read
+     */
+    public LilypondOutputCache(Path directory, long maxBytes, String version) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Negative cache size " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.version = version;
+        Files.createDirectories(directory);
+        scan();
+        evict();
+    }
+
+    /**
+     * Returns the first line LilyPond prints for {@code --version}, such as
+     * {@code GNU LilyPond 2.24.2 (running Guile 2.2)}.
+     *
+     * @param lilypondExecutable path to lilypond executable
+     * @return version line
+     * @throws IOException if LilyPond cannot be run, prints nothing or does not
+     *                     exit within {@link #VERSION_TIMEOUT}
+     */
+    public static String version(String lilypondExecutable) throws IOException, InterruptedException {
+        return version(lilypondExecutable, VERSION_TIMEOUT);
+    }
+
+    static String version(String lilypondExecutable, Duration timeout) throws IOException, InterruptedException {
+        // Output goes to a file, so a LilyPond that never exits cannot block a read
+        Path output = Files.createTempFile("lilypond-version-", ".txt");
+        try {
+            ProcessBuilder pb = new ProcessBuilder(lilypondExecutable, "--version");
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(output.toFile());
+            Process process = pb.start();
+            try {
+                if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new IOException("LilyPond did not report a version within "
+                        + timeout.toMillis() + " ms: " + lilypondExecutable);
+                }
+            } finally {
+                process.destroyForcibly();
+            }
+            String line = new String(Files.readAllBytes(output), StandardCharsets.UTF_8)
+                .lines().findFirst().orElse(null);
+            if (line == null || line.isBlank()) {
+                throw new IOException("LilyPond did not report a version: " + lilypondExecutable);
+            }
+            return line.trim();
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Returns the cached render of a source, or renders and stores it.
+     *
+     * @param lilySource the final .ly content
+     * @param flags      how the renderer runs LilyPond, such as its command-line flags
+     * @param renderer   renders the source on a miss
+     * @return a Result object containing PDF and MIDI bytes
+     * @throws IOException if the render fails
+     */
+    public LilypondRenderer.Result get(String lilySource, String flags, Renderer renderer)
+            throws IOException, InterruptedException, TimeoutException {
+        String key = key(flags, lilySource);
+        LilypondRenderer.Result cached = read(key);
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            Metrics.count(Metrics.Count.RENDER_CACHE_HITS, 1);
+            return cached;
+        }
+
+        CompletableFuture<LilypondRenderer.Result> mine = new CompletableFuture<>();
+        CompletableFuture<LilypondRenderer.Result> running = this.pending.putIfAbsent(key, mine);
+        if (running != null) {
+            // Another thread renders the same source
+            this.hits.incrementAndGet();
+            Metrics.count(Metrics.Count.RENDER_CACHE_HITS, 1);
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    // Its job was cancelled, not this one
+                    return get(lilySource, flags, renderer);
+                }
+                throw rethrow(e.getCause());
+            }
+        }
+        this.misses.incrementAndGet();
+        Metrics.count(Metrics.Count.RENDER_CACHE_MISSES, 1);
+        try {
+            LilypondRenderer.Result result = renderer.render(lilySource);
+            write(key, result);
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.pending.remove(key, mine);
+        }
+    }
+
+    /**
+     * Returns the number of requests served without rendering.
+     *
+     * @return hits so far
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of requests that rendered.
+     *
+     * @return misses so far
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the share of requests served without rendering.
+     *
+     * @return hit rate between 0 and 1, 0 before the first request
+     */
+    public double getHitRate() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of entries deleted to stay within the size limit.
+     *
+     * @return evictions so far
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Returns the size of the stored entries.
+     *
+     * @return bytes on disk
+     */
+    public long getSize() {
+        return this.bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LilypondOutputCache[hits=%d, misses=%d, evictions=%d, bytes=%d]",
+            getHits(), getMisses(), getEvictions(), getSize());
+    }
+
+    private String key(String flags, String lilySource) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(this.version.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(flags.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(lilySource.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Path file(String key) {
+        return this.directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    /**
+     * Reads an entry and marks it as used.
+     *
+     * @return the stored result, or null if there is no valid entry
+     */
+    private LilypondRenderer.Result read(String key) {
+        Path file = file(key);
+        byte[] pdf;
+        byte[] midi;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Fill the header
+            }
+            long pdfLength = header.flip().remaining() == Long.BYTES ? header.getLong() : -1;
+            if (pdfLength < 0 || pdfLength > size - Long.BYTES) {
+                throw new IOException("Corrupt cache entry " + file);
+            }
+            pdf = readFully(channel, (int) pdfLength);
+            midi = readFully(channel, (int) (size - Long.BYTES - pdfLength));
+        } catch (NoSuchFileException e) {
+            forget(key);
+            return null;
+        } catch (IOException e) {
+            forget(key);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            // Written by another process sharing the directory
+            entry = new Entry(Long.BYTES + pdf.length + midi.length, now);
+            if (this.entries.putIfAbsent(key, entry) == null) {
+                this.bytes.addAndGet(entry.size);
+            }
+        }
+        entry.used = now;
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+        } catch (IOException ignored) {}
+        return new LilypondRenderer.Result(pdf, midi);
+    }
+
+    private static byte[] readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Stores an entry atomically. A failed write only costs a later miss.
+     */
+    private void write(String key, LilypondRenderer.Result result) {
+        Path file = file(key);
+        Path temporary = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temporary = Files.createTempFile(file.getParent(), key, TEMPORARY);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer[] parts = {
+                    ByteBuffer.allocate(Long.BYTES).putLong(0, result.pdf.length),
+                    ByteBuffer.wrap(result.pdf),
+                    ByteBuffer.wrap(result.midi)
+                };
+                // Loops until every part is written, even when the MIDI is empty
+                long remaining = Long.BYTES + result.pdf.length + result.midi.length;
+                while (remaining > 0) {
+                    remaining -= channel.write(parts);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temporary = null;
+        } catch (IOException e) {
+            return;
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {}
+            }
+        }
+        Entry entry = new Entry(Long.BYTES + result.pdf.length + result.midi.length, System.currentTimeMillis());
+        Entry old = this.entries.put(key, entry);
+        this.bytes.addAndGet(entry.size - (old == null ? 0 : old.size));
+        if (this.bytes.get() > this.maxBytes) {
+            evict();
+        }
+    }
+
+    private void forget(String key) {
+        Entry old = this.entries.remove(key);
+        if (old != null) {
+            this.bytes.addAndGet(-old.size);
+        }
+    }
+
+    /**
+     * Indexes the entries in the directory and removes temporary files left
+     * by interrupted writes.
+     */
+    private void scan() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX) && Files.isRegularFile(file)) {
+                    Entry entry = new Entry(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+                    this.entries.put(name.substring(0, name.length() - SUFFIX.length()), entry);
+                    this.bytes.addAndGet(entry.size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is back under
+     * 90% of its limit, so that eviction does not run on every write.
+     */
+    private synchronized void evict() {
+        if (this.bytes.get() <= this.maxBytes) {
+            return;
+        }
+        long target = this.maxBytes - this.maxBytes / 10;
+        // Snapshot the use times, hits may update them while sorting
+        List<Map.Entry<String, Long>> byUse = new ArrayList<>();
+        this.entries.forEach((key, entry) -> byUse.add(Map.entry(key, entry.used)));
+        byUse.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> e : byUse) {
+            if (this.bytes.get() <= target) {
+                break;
+            }
+            Entry entry = this.entries.get(e.getKey());
+            if (entry == null || entry.used != e.getValue()) {
+                // Gone or used since the snapshot
+                continue;
+            }
+            try {
+                Files.deleteIfExists(file(e.getKey()));
+            } catch (IOException ignored) {
+                continue;
+            }
+            if (this.entries.remove(e.getKey(), entry)) {
+                this.bytes.addAndGet(-entry.size);
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) throws InterruptedException, TimeoutException {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof TimeoutException) {
+            throw (TimeoutException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+}
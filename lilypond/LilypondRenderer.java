@@ -1,20 +1,128 @@
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
  * LilyPond renderer that produces both PDF and MIDI from a .ly string.
+ *
+ * <p>By default every render starts a new LilyPond process and feeds it
+ * the source through standard input. LilyPond writes its output to a
+ * scratch directory borrowed for the render, on tmpfs where available;
+ * a few emptied directories are kept for later renders.
+ * {@link #renderToFiles(String, Path, Path)} moves the output from there
+ * into place instead of reading it into memory. A renderer
+ * created with {@link #pooled(String, int, Duration)} instead hands scores
+ * to a {@link LilypondWorkerPool} of warm processes and must be closed.</p>
+ *
+ * <p>{@link #renderAsync(String)} and {@link #renderAll(List)} run several
+ * renders at once, at most {@link #getConcurrency()} at a time. At most
+ * {@value #QUEUE_FACTOR} times as many jobs may be submitted but not yet
+ * finished; beyond that, submitting blocks until a job completes, so a
+ * large batch does not queue up all of its sources at once. Cancelling a
+ * returned future kills the LilyPond process of its job.</p>
  */
-public class LilypondRenderer {
+public class LilypondRenderer implements AutoCloseable {
+
+    /** Jobs that may be pending per concurrent render before submitting blocks */
+    static final int QUEUE_FACTOR = 4;
+
+    /** Daemon threads draining the output of per-render processes, shared by all renderers */
+    private static final ExecutorService GOBBLERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "lilypond-output-gobbler");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final String lilypondExecutable;
     private final Duration timeout;
 
+    /** Warm worker processes, or null to start a process per render */
+    private final LilypondWorkerPool pool;
+
+    /** Renders running at once in asynchronous jobs */
+    private final int concurrency;
+
+    /** Threads running asynchronous jobs, started on demand */
+    private final ThreadPoolExecutor executor;
+
+    /** Permits for submitted, unfinished asynchronous jobs */
+    private final Semaphore admitted;
+
+    /** Base name of the files LilyPond writes */
+    static final String OUTPUT = "output";
+
+    /** Root of the scratch directories, created on first use */
+    private static Path scratchRoot;
+
+    /** Empty scratch directories not in use, at most one per processor */
+    private static final BlockingQueue<Path> IDLE_SCRATCH =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    /** Cache consulted before rendering, or null */
+    private volatile LilypondOutputCache cache;
+
+    /** How this renderer runs LilyPond, part of its cache keys */
+    private final String flags;
+
     /** @param lilypondExecutable path to lilypond executable */
     public LilypondRenderer(String lilypondExecutable, Duration timeout) {
+        this(lilypondExecutable, timeout, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param lilypondExecutable path to lilypond executable
+     * @param timeout            default time limit of one render
+     * @param concurrency        number of asynchronous renders that run at once
+     */
+    public LilypondRenderer(String lilypondExecutable, Duration timeout, int concurrency) {
+        this(lilypondExecutable, timeout, null, concurrency);
+    }
+
+    /**
+     * Asynchronous renders run on as many threads as the pool has workers.
+     *
+     * @param pool worker processes to render on, closed with this renderer
+     */
+    public LilypondRenderer(LilypondWorkerPool pool) {
+        this(null, null, pool, pool.size());
+    }
+
+    private LilypondRenderer(String lilypondExecutable, Duration timeout, LilypondWorkerPool pool, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive, got " + concurrency);
+        }
         this.lilypondExecutable = lilypondExecutable;
         this.timeout = timeout;
+        this.pool = pool;
+        this.flags = pool != null ? pool.flags() : "-o " + OUTPUT + " -";
+        this.concurrency = concurrency;
+        this.admitted = new Semaphore(concurrency * QUEUE_FACTOR, true);
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "lilypond-render");
+                t.setDaemon(true);
+                return t;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a renderer that keeps {@code workers} LilyPond processes
+     * running and renders on them.
+     *
+     * @param lilypondExecutable path to lilypond executable
+     * @param workers            number of worker processes
+     * @param timeout            longest time a worker may take to start or to render one score
+     * @return renderer backed by a started worker pool
+     */
+    public static LilypondRenderer pooled(String lilypondExecutable, int workers, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        return new LilypondRenderer(LilypondWorkerPool.start(lilypondExecutable, workers, timeout));
     }
 
     /** Convenience constructor with default 30s timeout */
@@ -22,6 +130,36 @@ public class LilypondRenderer {
         this(lilypondExecutable, Duration.ofSeconds(30));
     }
 
+    /**
+     * Returns how many asynchronous renders run at once.
+     *
+     * @return concurrency limit
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Serves renders of sources that were rendered before from a cache.
+     * Entries are keyed by how this renderer runs LilyPond, so a pooled
+     * renderer and one starting a process per render can share a cache
+     * without sharing renders.
+     *
+     * @param cache cache to consult before starting LilyPond, or null to always render
+     */
+    public void setCache(LilypondOutputCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cache consulted before rendering.
+     *
+     * @return the cache, or null if every render starts LilyPond
+     */
+    public LilypondOutputCache getCache() {
+        return cache;
+    }
+
     /**
      * Renders a LilyPond source string to PDF and MIDI files in memory.
      *
@@ -29,33 +167,67 @@ public class LilypondRenderer {
      * @return a Result object containing PDF and MIDI bytes
      */
     public Result render(String lilySource) throws IOException, InterruptedException, TimeoutException {
-        Path tmpDir = Files.createTempDirectory("lilypond-render-");
-        lilySource = lilySource.replace ("````lily", "").replace ("```", "");
-        try {
-            Path inputLy = tmpDir.resolve("input.ly");
-            Files.writeString(inputLy, lilySource, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return render(lilySource, pool != null ? null : timeout);
+    }
 
-            String outputPrefix = "output";
-            Path outputPrefixPath = tmpDir.resolve(outputPrefix);
+    /**
+     * Renders a LilyPond source string with its own time limit.
+     *
+     * @param lilySource the .ly file content
+     * @param timeout    time limit of this render, null for the renderer's default
+     * @return a Result object containing PDF and MIDI bytes
+     */
+    public Result render(String lilySource, Duration timeout) throws IOException, InterruptedException, TimeoutException {
+        lilySource = lilySource.replace ("````lily", "").replace ("```", "");
+        LilypondOutputCache cache = this.cache;
+        if (cache != null) {
+            return cache.get(lilySource, flags, source -> renderUncached(source, timeout));
+        }
+        return renderUncached(lilySource, timeout);
+    }
 
-            ProcessBuilder pb = new ProcessBuilder(
-                    lilypondExecutable,
-                    "-o", outputPrefixPath.toString(),
-                    inputLy.toString()
+    private Result renderUncached(String lilySource, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        if (pool != null) {
+            return timeout == null ? pool.render(lilySource) : pool.render(lilySource, timeout);
+        }
+        Path dir = borrowScratch();
+        try {
+            produce(lilySource, timeout, dir);
+            return new Result(
+                    Files.readAllBytes(dir.resolve(OUTPUT + ".pdf")),
+                    Files.readAllBytes(dir.resolve(OUTPUT + ".mid"))
             );
-            pb.directory(tmpDir.toFile());
-            pb.redirectErrorStream(true);
+        } finally {
+            returnScratch(dir);
+        }
+    }
 
-            Process process = pb.start();
+    /**
+     * Runs LilyPond on a source fed through its standard input, leaving
+     * {@value #OUTPUT}.pdf and {@value #OUTPUT}.mid in {@code dir}.
+     */
+    private void produce(String lilySource, Duration timeout, Path dir)
+            throws IOException, InterruptedException, TimeoutException {
+        if (timeout == null) {
+            timeout = this.timeout;
+        }
+        Path outputPrefixPath = dir.resolve(OUTPUT);
+        ProcessBuilder pb = new ProcessBuilder(
+                lilypondExecutable,
+                "-o", outputPrefixPath.toString(),
+                "-"
+        );
+        pb.directory(dir.toFile());
+        pb.redirectErrorStream(true);
 
+        long start = Metrics.start(Metrics.Stage.PROCESS);
+        Process process = pb.start();
+        Metrics.count(Metrics.Count.PROCESSES_STARTED, 1);
+        try {
             // Capture process output asynchronously
             StringBuilder procOutput = new StringBuilder();
-            ExecutorService gobbler = Executors.newSingleThreadExecutor(r -> {
-                Thread t = new Thread(r, "lilypond-output-gobbler");
-                t.setDaemon(true);
-                return t;
-            });
-            Future<?> gobblerFuture = gobbler.submit(() -> {
+            Future<?> gobblerFuture = GOBBLERS.submit(() -> {
                 try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                     String line;
                     while ((line = br.readLine()) != null) {
@@ -64,47 +236,216 @@ public class LilypondRenderer {
                 } catch (IOException ignore) {}
             });
 
-            boolean finished = process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            // Feed the source on another thread, so a LilyPond that stops reading cannot outlast the timeout
+            Future<?> feederFuture = GOBBLERS.submit(() -> {
+                try (Writer input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+                    input.write(lilySource);
+                } catch (IOException ignore) {
+                    // LilyPond exited early, its exit code tells why
+                }
+            });
+
+            boolean finished;
+            try {
+                finished = process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Cancelled, LilyPond must not outlive its job
+                kill(process);
+                throw e;
+            }
             if (!finished) {
-                process.destroyForcibly();
+                kill(process);
                 throw new TimeoutException("LilyPond timed out. Output so far:\n" + procOutput);
             }
 
             gobblerFuture.get(5, TimeUnit.SECONDS);
-            gobbler.shutdownNow();
+            feederFuture.get(5, TimeUnit.SECONDS);
 
             int exitCode = process.exitValue();
             if (exitCode != 0) {
                 throw new IOException("LilyPond exited with code " + exitCode + ". Output:\n" + procOutput);
             }
-
-            Path pdfPath = tmpDir.resolve(outputPrefix + ".pdf");
-            Path midiPath = tmpDir.resolve(outputPrefix + ".mid");
-
-            if (!Files.exists(pdfPath)) {
+            if (!Files.exists(dir.resolve(OUTPUT + ".pdf"))) {
                 throw new IOException("PDF not generated. Output:\n" + procOutput);
             }
-            if (!Files.exists(midiPath)) {
+            if (!Files.exists(dir.resolve(OUTPUT + ".mid"))) {
                 throw new IOException("MIDI not generated. Output:\n" + procOutput);
             }
-
-            return new Result(
-                    Files.readAllBytes(pdfPath),
-                    Files.readAllBytes(midiPath)
-            );
-
         } catch (ExecutionException e) {
             throw new IOException("Failed to read LilyPond process output.", e);
         } finally {
-            // clean up temporary directory
-            try { deleteRecursively(tmpDir); } catch (IOException ignored) {}
+            Metrics.stop(Metrics.Stage.PROCESS, start);
+        }
+    }
+
+    /**
+     * Takes an idle scratch directory, or creates one if none is left.
+     */
+    private static Path borrowScratch() throws IOException {
+        Path dir;
+        while ((dir = IDLE_SCRATCH.poll()) != null) {
+            if (Files.isDirectory(dir)) {
+                return dir;
+            }
         }
+        return Files.createTempDirectory(scratchRoot(), "render-");
+    }
+
+    /**
+     * Empties a scratch directory, including anything else LilyPond left
+     * there, and keeps it for later renders unless enough are idle already.
+     * A directory that cannot be emptied is left to the cleanup on exit.
+     */
+    private static void returnScratch(Path dir) {
+        try {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path child : ds) deleteRecursively(child);
+            }
+            if (!IDLE_SCRATCH.offer(dir)) {
+                deleteRecursively(dir);
+            }
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Returns the directory holding all scratch directories of this JVM:
+     * on tmpfs in {@code /dev/shm} where available, otherwise in the
+     * temporary directory. It is deleted on exit.
+     */
+    static synchronized Path scratchRoot() throws IOException {
+        if (scratchRoot == null) {
+            Path shm = Paths.get("/dev/shm");
+            Path parent = Files.isDirectory(shm) && Files.isWritable(shm)
+                ? shm : Paths.get(System.getProperty("java.io.tmpdir"));
+            Path root = Files.createTempDirectory(parent, "lilypond-scratch-");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { deleteRecursively(root); } catch (IOException ignored) {}
+            }, "lilypond-scratch-cleanup"));
+            scratchRoot = root;
+        }
+        return scratchRoot;
+    }
+
+    /**
+     * Moves a file into place: renamed if both are on the same file system,
+     * otherwise copied by the kernel without passing through the heap.
+     */
+    static void moveInto(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different file systems, e.g. from tmpfs to disk
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        Files.delete(source);
+    }
+
+    /**
+     * Renders a LilyPond source on a background thread.
+     *
+     * @param lilySource the .ly file content
+     * @return future of the Result; cancelling it stops the render
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public CompletableFuture<Result> renderAsync(String lilySource) throws InterruptedException {
+        return renderAsync(lilySource, null);
+    }
+
+    /**
+     * Renders a LilyPond source on a background thread with its own time
+     * limit. Blocks while too many jobs are pending.
+     *
+     * @param lilySource the .ly file content
+     * @param timeout    time limit of this render, null for the renderer's default
+     * @return future of the Result; cancelling it stops the render
+     * @throws InterruptedException       if interrupted while waiting for room in the queue
+     * @throws RejectedExecutionException if the renderer is closed
+     */
+    public CompletableFuture<Result> renderAsync(String lilySource, Duration timeout) throws InterruptedException {
+        long queued = Metrics.ENABLED ? System.nanoTime() : 0;
+        admitted.acquire();
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                if (Metrics.ENABLED) {
+                    Metrics.time(Metrics.Stage.QUEUE, System.nanoTime() - queued);
+                }
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(render(lilySource, timeout));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            throw e;
+        }
+        result.whenComplete((r, e) -> {
+            admitted.release();
+            if (result.isCancelled()) {
+                // Interrupts the job, which kills its process
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Renders several LilyPond sources concurrently. Returns once every job
+     * has been submitted, which may take until the last jobs are running.
+     *
+     * @param lilySources the .ly file contents
+     * @return futures of the Results, in the order of the sources
+     * @throws InterruptedException if interrupted while submitting; jobs
+     *                              submitted so far are cancelled
+     */
+    public List<CompletableFuture<Result>> renderAll(List<String> lilySources) throws InterruptedException {
+        List<CompletableFuture<Result>> results = new ArrayList<>(lilySources.size());
+        try {
+            for (String lilySource : lilySources) {
+                results.add(renderAsync(lilySource));
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            results.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    /** Stops running jobs and the worker pool, if any */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Kills a process together with the processes it started, such as
+     * Ghostscript.
+     */
+    static void kill(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
     }
 
     /**
      * Simple recursive delete
      */
-    private static void deleteRecursively(Path path) throws IOException {
+    static void deleteRecursively(Path path) throws IOException {
         if (Files.notExists(path)) return;
         if (Files.isDirectory(path)) {
             try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
@@ -126,12 +467,36 @@ public class LilypondRenderer {
         }
     }
 
-    /** Convenience method to write to disk */
+    /**
+     * Renders a LilyPond source straight to files. The outputs are moved
+     * from the scratch directory into place instead of being read into
+     * memory, unless they come from the cache.
+     *
+     * @param lilySource the .ly file content
+     * @param pdfDest    file the PDF is written to
+     * @param midiDest   file the MIDI is written to
+     */
     public void renderToFiles(String lilySource, Path pdfDest, Path midiDest)
             throws IOException, InterruptedException, TimeoutException {
-        Result result = render(lilySource);
-        Files.write(pdfDest, result.pdf, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        Files.write(midiDest, result.midi, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (cache != null) {
+            Result result = render(lilySource);
+            Files.write(pdfDest, result.pdf, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.write(midiDest, result.midi, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            return;
+        }
+        lilySource = lilySource.replace ("````lily", "").replace ("```", "");
+        if (pool != null) {
+            pool.renderToFiles(lilySource, pdfDest, midiDest);
+            return;
+        }
+        Path dir = borrowScratch();
+        try {
+            produce(lilySource, null, dir);
+            moveInto(dir.resolve(OUTPUT + ".pdf"), pdfDest);
+            moveInto(dir.resolve(OUTPUT + ".mid"), midiDest);
+        } finally {
+            returnScratch(dir);
+        }
     }
 
     /** Example usage */
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LilyPond template parsed into literal segments and named slots.
+ *
+ * <p>A template is a note of the vault in which the markers of
+ * {@link #MARKERS} stand for generated content, for example
+ * {@code ####MUSICGOESHERE####} for the voice definitions. Rendering
+ * streams the segments and the slot values straight to the destination, so
+ * neither the template nor the result is copied or scanned again.</p>
+ *
+ * <p>{@link #load(Vault, Path)} keeps parsed templates per vault and
+ * parses a template again only after its modification time has changed.</p>
+ */
+public final class LilypondTemplate {
+
+    /** Slot for the assembled voice definitions */
+    public static final String MUSIC = "MUSIC";
+
+    /** Slot for the current date */
+    public static final String DATE = "DATE";
+
+    /** Markers in the template text and the slots they stand for */
+    static final Map<String, String> MARKERS = Map.of(
+        "####MUSICGOESHERE####", MUSIC,
+        "###DATEGOESHERE###", DATE
+    );
+
+    /** Writes the value of a slot */
+    @FunctionalInterface
+    public interface Filler {
+        void fill(String slot, Appendable out) throws IOException;
+    }
+
+    /** Parsed templates per vault and path */
+    private static final Map<Vault, Map<Path, LilypondTemplate>> CACHE =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Literal text before, between and after the slots */
+    private final String[] segments;
+
+    /** Slot after each segment but the last */
+    private final String[] slots;
+
+    /** Modification time of the file the template was parsed from */
+    private final FileTime modified;
+
+    private LilypondTemplate(String[] segments, String[] slots, FileTime modified) {
+        this.segments = segments;
+        this.slots = slots;
+        this.modified = modified;
+    }
+
+    /**
+     * Parses template text.
+     *
+     * @param text template with markers
+     * @return the parsed template
+     */
+    public static LilypondTemplate parse(String text) {
+        return parse(text, null);
+    }
+
+    private static LilypondTemplate parse(String text, FileTime modified) {
+        List<String> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            // Nearest marker; markers do not overlap
+            int at = -1;
+            String marker = null;
+            for (String m : MARKERS.keySet()) {
+                int i = text.indexOf(m, from);
+                if (i >= 0 && (at < 0 || i < at)) {
+                    at = i;
+                    marker = m;
+                }
+            }
+            if (marker == null) {
+                break;
+            }
+            segments.add(text.substring(from, at));
+            slots.add(MARKERS.get(marker));
+            from = at + marker.length();
+        }
+        segments.add(text.substring(from));
+        return new LilypondTemplate(segments.toArray(new String[0]), slots.toArray(new String[0]), modified);
+    }
+
+    /**
+     * Returns the parsed template stored in a note, reading it only if it
+     * has not been parsed yet or has changed since.
+     *
+     * @param vault vault holding the template
+     * @param path  path of the template in the vault
+     * @return the parsed template
+     * @throws IOException if the template cannot be read
+     */
+    public static LilypondTemplate load(Vault vault, Path path) throws IOException {
+        Map<Path, LilypondTemplate> templates;
+        synchronized (CACHE) {
+            templates = CACHE.computeIfAbsent(vault, v -> new ConcurrentHashMap<>());
+        }
+        FileTime modified = vault.lastModified(path);
+        LilypondTemplate template = templates.get(path);
+        if (template != null && modified != null && Objects.equals(template.modified, modified)) {
+            return template;
+        }
+        StringWriter text = new StringWriter();
+        try (Reader reader = vault.open(path)) {
+            reader.transferTo(text);
+        }
+        template = parse(text.toString(), modified);
+        templates.put(path, template);
+        return template;
+    }
+
+    /**
+     * Streams the template with its slots filled in.
+     *
+     * @param out    destination of the text
+     * @param filler writes the value of each slot
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void render(Appendable out, Filler filler) throws IOException {
+        for (int i = 0; i < this.slots.length; i++) {
+            out.append(this.segments[i]);
+            filler.fill(this.slots[i], out);
+        }
+        out.append(this.segments[this.slots.length]);
+    }
+}
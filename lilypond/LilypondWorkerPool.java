@@ -0,0 +1,599 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of long-running LilyPond processes that render one score
+ * after another, so that process and Guile startup is paid once per worker
+ * instead of once per score.
+ *
+ * <p>Each worker runs {@link #WORKER_SCRIPT}, a Scheme loop that reads jobs
+ * from standard input. Workers talk a line protocol:</p>
+ * <ul>
+ *   <li>after startup the worker prints {@code @composite ready}</li>
+ *   <li>a job is the line {@code <directory>\t<file>\t<name>}; the worker
+ *       changes into the directory, renders the file to {@code <name>.pdf}
+ *       and {@code <name>.mid} and prints {@code @composite ok} or
+ *       {@code @composite error <reason>}. Further books of the file may
+ *       add outputs with suffixes such as {@code <name>-1.pdf}, which are
+ *       ignored</li>
+ *   <li>the line {@code ping} is answered with {@code @composite pong}</li>
+ *   <li>the worker exits when its standard input is closed</li>
+ * </ul>
+ * <p>Every other output line, and everything written to standard error, is
+ * kept as the log of the current job. Any executable that follows the
+ * protocol can stand in for LilyPond, see
+ * {@link #LilypondWorkerPool(List, int, Duration)}.</p>
+ *
+ * <p>Jobs wait in a fair queue until a worker is free. A job that takes
+ * longer than the timeout kills its worker. Workers are checked before they
+ * are handed out: dead ones, and idle ones that do not answer a ping, are
+ * replaced by fresh processes. Workers are also retired after
+ * {@link #MAX_JOBS} jobs, to bound the memory a long-running Guile heap
+ * accumulates.</p>
+ *
+ * <p>Worker directories live below {@link LilypondRenderer#scratchRoot()},
+ * on tmpfs where available, and are reused for every job of the worker.</p>
+ */
+public final class LilypondWorkerPool implements AutoCloseable {
+
+    /**
+     * LilyPond input that turns a LilyPond process into a worker.
+     *
+     * <p>LilyPond names the outputs of a parsed file after
+     * {@code (ly:parser-output-name)}, which follows the main input file and
+     * the {@code -o} option rather than the file a job parses. The script
+     * rebinds it in the {@code (lily)} module to answer the name sent with
+     * the job while the job is parsed, so the first book of every job is
+     * written to {@code <name>.pdf} and {@code <name>.mid}.</p>
+     */
+    static final String WORKER_SCRIPT = """
+            #(use-modules (ice-9 rdelim))
+            #(ly:set-option 'midi-extension "mid")
+            #(define composite-output-name #f)
+            #(let* ((lily (resolve-module '(lily)))
+                    (output-name (module-ref lily 'ly:parser-output-name)))
+               (module-set! lily 'ly:parser-output-name
+                 (lambda args
+                   (or composite-output-name (apply output-name args)))))
+            #(define (composite-reply . words)
+               (display "@composite")
+               (for-each (lambda (word) (display " ") (display word)) words)
+               (newline)
+               (force-output))
+            #(composite-reply "ready")
+            #(let loop ((line (read-line)))
+               (cond
+                 ((eof-object? line) #t)
+                 ((string=? line "ping")
+                  (composite-reply "pong")
+                  (loop (read-line)))
+                 (else
+                  (let* ((fields (string-split line #\\tab))
+                         (directory (car fields))
+                         (file (cadr fields))
+                         (name (caddr fields))
+                         (failure
+                          (catch #t
+                            (lambda ()
+                              (chdir directory)
+                              (ly:reset-all-fonts)
+                              (set! composite-output-name name)
+                              (ly:parse-file file)
+                              #f)
+                            (lambda (key . args) key))))
+                    (set! composite-output-name #f)
+                    (gc)
+                    (if failure
+                        (composite-reply "error" failure)
+                        (composite-reply "ok"))
+                    (loop (read-line))))))
+            """;
+
+    /** Jobs a worker renders before it is replaced */
+    static final int MAX_JOBS = 200;
+
+    /** Prefix of protocol lines written by a worker */
+    private static final String REPLY = "@composite ";
+
+    /** Reply queued when a worker's output ends, never sent by a worker */
+    private static final String EXITED = "\0exited";
+
+    /** Idle time after which a worker is pinged before it gets a job */
+    private static final Duration HEALTH_CHECK_AFTER = Duration.ofSeconds(30);
+
+    /** Most characters of worker output kept for error messages */
+    private static final int LOG_LIMIT = 64 * 1024;
+
+    private final List<String> command;
+
+    /** How the workers run LilyPond, part of render cache keys */
+    private final String flags;
+
+    private final int size;
+    private final Duration timeout;
+    private final Path scratch;
+
+    /** One permit per worker; fair, so jobs are served in arrival order */
+    private final Semaphore permits;
+
+    /** Workers waiting for a job, most recently used first */
+    private final Deque<Worker> idle = new ArrayDeque<>();
+
+    /** Every running worker, for shutdown */
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger started = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Starts a pool of LilyPond workers.
+     *
+     * @param lilypondExecutable path to lilypond executable
+     * @param size               number of worker processes
+     * @param timeout            longest time a worker may take to start or to render one score
+     * @return the started pool
+     * @throws IOException          if the worker script cannot be written or a worker fails to start
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws TimeoutException     if a worker does not start in time
+     */
+    public static LilypondWorkerPool start(String lilypondExecutable, int size, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        Path script = Files.createTempFile("lilypond-worker-", ".ly");
+        script.toFile().deleteOnExit();
+        Files.writeString(script, WORKER_SCRIPT, StandardCharsets.UTF_8);
+        // The script path is new every time, the script itself describes the workers
+        return new LilypondWorkerPool(List.of(lilypondExecutable, script.toString()),
+            "worker\n" + WORKER_SCRIPT, size, timeout);
+    }
+
+    /**
+     * Starts a pool of workers running an arbitrary command that follows the
+     * worker protocol, such as a script standing in for LilyPond.
+     *
+     * @param command executable and arguments that start one worker
+     * @param size    number of worker processes
+     * @param timeout longest time a worker may take to start or to render one score
+     * @throws IOException          if a worker fails to start
+     * @throws InterruptedException if interrupted while waiting for the workers
+     * @throws TimeoutException     if a worker does not start in time
+     */
+    public LilypondWorkerPool(List<String> command, int size, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        this(command, "worker " + String.join(" ", command), size, timeout);
+    }
+
+    private LilypondWorkerPool(List<String> command, String flags, int size, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool needs at least one worker, got " + size);
+        }
+        this.command = List.copyOf(command);
+        this.flags = flags;
+        this.size = size;
+        this.timeout = timeout;
+        this.scratch = Files.createTempDirectory(LilypondRenderer.scratchRoot(), "pool-");
+        this.permits = new Semaphore(size, true);
+        try {
+            // Start every process before waiting, so the workers warm up in parallel
+            List<Worker> warming = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                warming.add(launch());
+            }
+            for (Worker worker : warming) {
+                worker.awaitReady();
+                this.idle.push(worker);
+            }
+        } catch (IOException | InterruptedException | TimeoutException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of worker processes.
+     *
+     * @return pool size
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Describes how the workers run LilyPond, to tell their renders apart
+     * from those of other workers or of a process per render.
+     *
+     * @return key flags of this pool
+     */
+    String flags() {
+        return this.flags;
+    }
+
+    /**
+     * Returns how many worker processes have been started, including
+     * replacements for dead, hung or retired workers.
+     *
+     * @return number of started processes
+     */
+    public int getStartedWorkers() {
+        return this.started.get();
+    }
+
+    /**
+     * Renders a LilyPond source on the next free worker. Waits in line
+     * while all workers are busy.
+     *
+     * @param lilySource the .ly file content
+     * @return a Result object containing PDF and MIDI bytes
+     * @throws IOException           if LilyPond reports an error or produces no output
+     * @throws InterruptedException  if interrupted while waiting for a worker or the result
+     * @throws TimeoutException      if the job takes longer than the timeout
+     * @throws IllegalStateException if the pool is closed
+     */
+    public LilypondRenderer.Result render(String lilySource)
+            throws IOException, InterruptedException, TimeoutException {
+        return render(lilySource, this.timeout);
+    }
+
+    /**
+     * Renders a LilyPond source on the next free worker with its own time
+     * limit, which starts once a worker has taken the job.
+     *
+     * @param lilySource the .ly file content
+     * @param timeout    longest time the worker may take
+     * @return a Result object containing PDF and MIDI bytes
+     * @throws IOException           if LilyPond reports an error or produces no output
+     * @throws InterruptedException  if interrupted while waiting for a worker or the result
+     * @throws TimeoutException      if the job takes longer than the timeout
+     * @throws IllegalStateException if the pool is closed
+     */
+    public LilypondRenderer.Result render(String lilySource, Duration timeout)
+            throws IOException, InterruptedException, TimeoutException {
+        return run(lilySource, timeout, (pdf, midi) -> new LilypondRenderer.Result(
+                Files.readAllBytes(pdf),
+                Files.readAllBytes(midi)
+        ));
+    }
+
+    /**
+     * Renders a LilyPond source on the next free worker straight to files.
+     * The outputs are moved out of the worker's scratch directory instead of
+     * being read into memory.
+     *
+     * @param lilySource the .ly file content
+     * @param pdfDest    file the PDF is written to
+     * @param midiDest   file the MIDI is written to
+     * @throws IOException           if LilyPond reports an error or produces no output
+     * @throws InterruptedException  if interrupted while waiting for a worker or the result
+     * @throws TimeoutException      if the job takes longer than the timeout
+     * @throws IllegalStateException if the pool is closed
+     */
+    public void renderToFiles(String lilySource, Path pdfDest, Path midiDest)
+            throws IOException, InterruptedException, TimeoutException {
+        run(lilySource, this.timeout, (pdf, midi) -> {
+            LilypondRenderer.moveInto(pdf, pdfDest);
+            LilypondRenderer.moveInto(midi, midiDest);
+            return null;
+        });
+    }
+
+    /** Takes the output of a job out of the worker's scratch directory */
+    @FunctionalInterface
+    private interface Collect<T> {
+        T collect(Path pdf, Path midi) throws IOException;
+    }
+
+    private <T> T run(String lilySource, Duration timeout, Collect<T> collect)
+            throws IOException, InterruptedException, TimeoutException {
+        checkOpen();
+        long queued = Metrics.ENABLED ? System.nanoTime() : 0;
+        this.permits.acquire();
+        Worker worker = null;
+        boolean reusable = false;
+        try {
+            checkOpen();
+            worker = checkout();
+            if (Metrics.ENABLED) {
+                Metrics.time(Metrics.Stage.QUEUE, System.nanoTime() - queued);
+            }
+            long start = Metrics.start(Metrics.Stage.PROCESS);
+            try {
+                worker.produce(lilySource, timeout);
+            } finally {
+                Metrics.stop(Metrics.Stage.PROCESS, start);
+            }
+            // The worker is done, failures from here on are not its fault
+            reusable = true;
+            return collect.collect(worker.pdfPath, worker.midiPath);
+        } catch (LilypondFailure e) {
+            // LilyPond rejected the score, the worker itself is fine
+            reusable = true;
+            throw e;
+        } finally {
+            if (worker != null) {
+                checkin(worker, reusable);
+            }
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Stops all workers and deletes their scratch directories. Jobs still
+     * running fail.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        synchronized (this.idle) {
+            this.idle.clear();
+        }
+        for (Worker worker : this.workers) {
+            worker.stop();
+        }
+        try {
+            LilypondRenderer.deleteRecursively(this.scratch);
+        } catch (IOException ignored) {}
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Worker pool is closed");
+        }
+    }
+
+    /**
+     * Takes an idle worker, replacing it if it fails its health check.
+     */
+    private Worker checkout() throws IOException, InterruptedException, TimeoutException {
+        Worker worker;
+        synchronized (this.idle) {
+            worker = this.idle.poll();
+        }
+        if (worker != null && !worker.healthy()) {
+            worker.kill();
+            worker = null;
+        }
+        if (worker == null) {
+            worker = launch();
+            try {
+                worker.awaitReady();
+            } catch (IOException | InterruptedException | TimeoutException e) {
+                worker.kill();
+                throw e;
+            }
+        }
+        return worker;
+    }
+
+    private void checkin(Worker worker, boolean reusable) {
+        if (!reusable) {
+            // Hung, interrupted or broken mid-job, its state is unknown
+            worker.kill();
+            return;
+        }
+        if (this.closed || worker.jobs >= MAX_JOBS || !worker.process.isAlive()) {
+            // The next checkout starts a replacement
+            worker.stop();
+            return;
+        }
+        synchronized (this.idle) {
+            this.idle.push(worker);
+        }
+    }
+
+    private Worker launch() throws IOException {
+        Path directory = this.scratch.resolve("worker-" + this.started.incrementAndGet());
+        Files.createDirectories(directory);
+        Worker worker = new Worker(directory);
+        Metrics.count(Metrics.Count.PROCESSES_STARTED, 1);
+        this.workers.add(worker);
+        return worker;
+    }
+
+    /** LilyPond answered a job with an error */
+    private static final class LilypondFailure extends IOException {
+        LilypondFailure(String message) {
+            super(message);
+        }
+    }
+
+    /** One worker process with its scratch directory */
+    private final class Worker {
+
+        final Path directory;
+        final Path inputPath;
+        final Path pdfPath;
+        final Path midiPath;
+        final Process process;
+        final Writer input;
+
+        /** Protocol replies, {@link #EXITED} once the output has ended */
+        final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+        /** Output of the current job */
+        final StringBuilder log = new StringBuilder();
+
+        int jobs;
+        long lastUsed = System.nanoTime();
+
+        Worker(Path directory) throws IOException {
+            if (directory.toString().indexOf('\t') >= 0 || directory.toString().indexOf('\n') >= 0) {
+                throw new IOException("Scratch directory cannot be passed to a worker: " + directory);
+            }
+            this.directory = directory;
+            this.inputPath = directory.resolve(LilypondRenderer.OUTPUT + ".ly");
+            this.pdfPath = directory.resolve(LilypondRenderer.OUTPUT + ".pdf");
+            this.midiPath = directory.resolve(LilypondRenderer.OUTPUT + ".mid");
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(directory.toFile());
+            this.process = pb.start();
+            this.input = new BufferedWriter(new OutputStreamWriter(this.process.getOutputStream(), StandardCharsets.UTF_8));
+            drain(this.process.getInputStream(), true);
+            drain(this.process.getErrorStream(), false);
+        }
+
+        /**
+         * Reads a stream of the process on a daemon thread for the lifetime
+         * of the worker.
+         */
+        private void drain(InputStream stream, boolean protocol) {
+            Thread t = new Thread(() -> {
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        if (protocol && line.startsWith(REPLY)) {
+                            this.replies.add(line.substring(REPLY.length()));
+                        } else {
+                            log(line);
+                        }
+                    }
+                } catch (IOException ignore) {
+                } finally {
+                    if (protocol) {
+                        this.replies.add(EXITED);
+                    }
+                }
+            }, "lilypond-worker-output");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void log(String line) {
+            synchronized (this.log) {
+                if (this.log.length() < LOG_LIMIT) {
+                    this.log.append(line).append(System.lineSeparator());
+                }
+            }
+        }
+
+        private String output() {
+            synchronized (this.log) {
+                return this.log.toString();
+            }
+        }
+
+        void awaitReady() throws IOException, InterruptedException, TimeoutException {
+            String reply = await(timeout);
+            if (!reply.equals("ready")) {
+                throw new IOException("LilyPond worker did not start: " + reply + ". Output:\n" + output());
+            }
+        }
+
+        /**
+         * Checks that the process is alive and, after a long idle time, that
+         * it still answers.
+         */
+        boolean healthy() {
+            if (!this.process.isAlive()) {
+                return false;
+            }
+            if (System.nanoTime() - this.lastUsed < HEALTH_CHECK_AFTER.toNanos()) {
+                return true;
+            }
+            try {
+                send("ping");
+                return await(timeout).equals("pong");
+            } catch (IOException | TimeoutException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Renders a source into the scratch directory.
+         */
+        void produce(String lilySource, Duration timeout)
+                throws IOException, InterruptedException, TimeoutException {
+            synchronized (this.log) {
+                this.log.setLength(0);
+            }
+            this.jobs++;
+            // Outputs of the previous job, including those of further books
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.directory)) {
+                for (Path child : ds) {
+                    LilypondRenderer.deleteRecursively(child);
+                }
+            }
+            Files.writeString(this.inputPath, lilySource, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            send(this.directory + "\t" + this.inputPath.getFileName() + "\t" + LilypondRenderer.OUTPUT);
+            String reply = await(timeout);
+            this.lastUsed = System.nanoTime();
+            if (reply.startsWith("error")) {
+                throw new LilypondFailure("LilyPond failed (" + reply.substring(5).trim() + "). Output:\n" + output());
+            }
+            if (!reply.equals("ok")) {
+                throw new IOException("Unexpected reply from LilyPond worker: " + reply + ". Output:\n" + output());
+            }
+            if (!Files.exists(this.pdfPath)) {
+                throw new LilypondFailure("PDF not generated. Output:\n" + output());
+            }
+            if (!Files.exists(this.midiPath)) {
+                throw new LilypondFailure("MIDI not generated. Output:\n" + output());
+            }
+        }
+
+        private void send(String line) throws IOException {
+            this.input.write(line);
+            this.input.write('\n');
+            this.input.flush();
+        }
+
+        /**
+         * Waits for the next protocol reply.
+         */
+        private String await(Duration wait) throws IOException, InterruptedException, TimeoutException {
+            String reply = this.replies.poll(wait.toMillis(), TimeUnit.MILLISECONDS);
+            if (reply == null) {
+                throw new TimeoutException("LilyPond timed out. Output so far:\n" + output());
+            }
+            if (reply.equals(EXITED)) {
+                this.replies.add(EXITED);
+                String code = this.process.waitFor(1, TimeUnit.SECONDS)
+                    ? String.valueOf(this.process.exitValue()) : "unknown";
+                throw new IOException("LilyPond worker exited with code " + code + ". Output:\n" + output());
+            }
+            return reply;
+        }
+
+        /**
+         * Asks the process to exit by closing its input, then kills it.
+         */
+        void stop() {
+            workers.remove(this);
+            try {
+                this.input.close();
+            } catch (IOException ignored) {}
+            try {
+                if (!this.process.waitFor(1, TimeUnit.SECONDS)) {
+                    LilypondRenderer.kill(this.process);
+                }
+            } catch (InterruptedException e) {
+                LilypondRenderer.kill(this.process);
+                Thread.currentThread().interrupt();
+            }
+            clean();
+        }
+
+        /**
+         * Kills the process without waiting for it.
+         */
+        void kill() {
+            workers.remove(this);
+            LilypondRenderer.kill(this.process);
+            clean();
+        }
+
+        private void clean() {
+            try {
+                LilypondRenderer.deleteRecursively(this.directory);
+            } catch (IOException ignored) {}
+        }
+    }
+}
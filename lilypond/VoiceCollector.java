@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appendable that collects the voice definitions of rendered LilyPond
+ * snippets while the tree renders.
+ *
+ * <p>Every {@code voiceX = { ... }} in the text is routed into the buffer
+ * of voice {@code voiceX}; everything else is dropped as it arrives, so the
+ * fully expanded document is never held in memory. Bodies end at their
+ * matching closing brace: nested braces, braces in strings and braces in
+ * {@code %} and {@code %{ %}} comments do not end a body. Markdown fences,
+ * {@code ```lily} and {@code ```}, are removed from the text before it is
+ * scanned.</p>
+ *
+ * <p>{@link #appendTo(Appendable)} writes the voices in order of their first
+ * appearance, each with all of its bodies in order:</p>
+ * <pre>
+ * voiceA = {
+ *   first body
+ *   second body
+ * }
+ * </pre>
+ */
+public final class VoiceCollector implements Appendable {
+
+    private static final String PREFIX = "voice";
+    private static final String FENCE_LANGUAGE = "lily";
+
+    /** Where the scanner is within a voice definition */
+    private enum State { TEXT, NAME, OPEN, BODY, STRING, ESCAPE, COMMENT, LINE_COMMENT, BLOCK_COMMENT }
+
+    /** Bodies of each voice, in order of appearance */
+    private final Map<String, List<String>> voices = new LinkedHashMap<>();
+
+    private State state = State.TEXT;
+
+    /** Word being scanned outside of bodies */
+    private final StringBuilder word = new StringBuilder();
+
+    /** Voice whose definition is being scanned */
+    private String name;
+
+    /** Body being scanned */
+    private final StringBuilder body = new StringBuilder();
+
+    /** Nesting depth of braces in the body */
+    private int depth;
+
+    /** Backticks seen but not yet passed on */
+    private int ticks;
+
+    /** Characters of {@value #FENCE_LANGUAGE} matched after a fence */
+    private int language = -1;
+
+    @Override
+    public VoiceCollector append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public VoiceCollector append(CharSequence csq, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(csq.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Removes Markdown fences before the character reaches the scanner.
+     */
+    @Override
+    public VoiceCollector append(char c) {
+        if (this.language >= 0) {
+            if (c == FENCE_LANGUAGE.charAt(this.language)) {
+                if (++this.language == FENCE_LANGUAGE.length()) {
+                    this.language = -1;
+                }
+                return this;
+            }
+            // Not a lily fence, pass on the part of the language that matched
+            int matched = this.language;
+            this.language = -1;
+            for (int i = 0; i < matched; i++) {
+                scan(FENCE_LANGUAGE.charAt(i));
+            }
+        }
+        if (c == '`') {
+            this.ticks++;
+            return this;
+        }
+        if (this.ticks > 0) {
+            boolean fence = this.ticks >= 3;
+            for (int i = 0; i < this.ticks % 3; i++) {
+                scan('`');
+            }
+            this.ticks = 0;
+            if (fence && c == FENCE_LANGUAGE.charAt(0)) {
+                this.language = 1;
+                return this;
+            }
+        }
+        scan(c);
+        return this;
+    }
+
+    private void scan(char c) {
+        switch (this.state) {
+            case TEXT:
+                if (isWordPart(c)) {
+                    this.word.append(c);
+                    return;
+                }
+                // The name starts at the first "voice" that is followed by more of the word
+                int at = this.word.indexOf(PREFIX);
+                if (at >= 0 && at + PREFIX.length() < this.word.length()) {
+                    this.name = this.word.substring(at);
+                    this.word.setLength(0);
+                    this.state = State.NAME;
+                    scan(c);
+                } else {
+                    this.word.setLength(0);
+                }
+                return;
+            case NAME:
+                if (c == '=') {
+                    this.state = State.OPEN;
+                } else if (!Character.isWhitespace(c)) {
+                    restart(c);
+                }
+                return;
+            case OPEN:
+                if (c == '{') {
+                    this.state = State.BODY;
+                    this.depth = 1;
+                } else if (!Character.isWhitespace(c)) {
+                    restart(c);
+                }
+                return;
+            case BODY:
+                body(c);
+                return;
+            case STRING:
+                this.body.append(c);
+                if (c == '\\') {
+                    this.state = State.ESCAPE;
+                } else if (c == '"') {
+                    this.state = State.BODY;
+                }
+                return;
+            case ESCAPE:
+                this.body.append(c);
+                this.state = State.STRING;
+                return;
+            case COMMENT:
+                this.body.append(c);
+                this.state = c == '{' ? State.BLOCK_COMMENT : c == '\n' ? State.BODY : State.LINE_COMMENT;
+                return;
+            case LINE_COMMENT:
+                this.body.append(c);
+                if (c == '\n') {
+                    this.state = State.BODY;
+                }
+                return;
+            case BLOCK_COMMENT:
+                this.body.append(c);
+                if (c == '}' && this.body.charAt(this.body.length() - 2) == '%') {
+                    this.state = State.BODY;
+                }
+                return;
+            default:
+                throw new IllegalStateException(this.state.name());
+        }
+    }
+
+    private void body(char c) {
+        if (c == '}' && --this.depth == 0) {
+            this.voices.computeIfAbsent(this.name, k -> new ArrayList<>()).add(this.body.toString().trim());
+            this.body.setLength(0);
+            this.name = null;
+            this.state = State.TEXT;
+            return;
+        }
+        this.body.append(c);
+        if (c == '{') {
+            this.depth++;
+        } else if (c == '"') {
+            this.state = State.STRING;
+        } else if (c == '%') {
+            this.state = State.COMMENT;
+        }
+    }
+
+    /**
+     * Abandons a definition that turned out not to be one and rescans the
+     * character as ordinary text.
+     */
+    private void restart(char c) {
+        this.name = null;
+        this.state = State.TEXT;
+        scan(c);
+    }
+
+    private static boolean isWordPart(char c) {
+        return c == '_' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns the bodies collected so far. Definitions that are still open
+     * are not included.
+     *
+     * @return bodies by voice name, in order of first appearance
+     */
+    public Map<String, List<String>> getVoices() {
+        return this.voices;
+    }
+
+    /**
+     * Writes the collected voice definitions.
+     *
+     * @param out destination of the definitions
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void appendTo(Appendable out) throws IOException {
+        for (Map.Entry<String, List<String>> entry : this.voices.entrySet()) {
+            out.append(entry.getKey()).append(" = {\n");
+            for (String block : entry.getValue()) {
+                out.append("  ").append(block).append("\n");
+            }
+            out.append("}\n\n");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Vault backed by a directory of any NIO file system.
+ *
+ * <p>On construction the directory is walked once and every file is
+ * indexed by its vault-relative path and by its file name, so links resolve
+ * with a single hash lookup. When several files share a name, the name
+ * resolves to the one closest to the vault root, and among equally deep
+ * files to the first by vault-relative path, whatever order the file
+ * system lists them in. {@link #reindex()} picks up files created
+ * afterwards.</p>
+ */
+public class FileSystemVault implements Vault {
+
+    /** System property naming the vault directory used by default */
+    public static final String ROOT_PROPERTY = "obsidian.vault";
+
+    /** Environment variable naming the vault directory used by default */
+    public static final String ROOT_VARIABLE = "OBSIDIAN_VAULT";
+
+    /** Lazily created default vault */
+    private static FileSystemVault defaultVault;
+
+    /** Root directory of the vault */
+    private final Path root;
+
+    /** Notes by vault-relative path and by file name */
+    private volatile Map<String, Path> index;
+
+    /**
+     * Creates a vault rooted at the given directory and indexes its files.
+     *
+     * @param root root directory of the vault
+     * @throws UncheckedIOException if the directory cannot be walked
+     */
+    public FileSystemVault(Path root) {
+        this(root, true);
+    }
+
+    /**
+     * Creates a vault rooted at the given directory.
+     *
+     * @param root  root directory of the vault
+     * @param index whether to index the files now; otherwise the subclass
+     *              calls {@link #reindex()} itself
+     */
+    FileSystemVault(Path root, boolean index) {
+        this.root = real(root);
+        if (index) {
+            reindex();
+        } else {
+            this.index = Map.of();
+        }
+    }
+
+    /**
+     * Returns the vault rooted at the directory named by the
+     * {@value #ROOT_PROPERTY} system property or the {@value #ROOT_VARIABLE}
+     * environment variable.
+     *
+     * @return the shared default vault
+     * @throws IllegalStateException if neither names a vault directory
+     */
+    public static synchronized FileSystemVault getDefault() {
+        if (defaultVault == null) {
+            String root = System.getProperty(ROOT_PROPERTY, System.getenv(ROOT_VARIABLE));
+            if (root == null || root.isBlank()) {
+                throw new IllegalStateException("No vault directory set, pass -D" + ROOT_PROPERTY
+                    + "=<directory> or set the " + ROOT_VARIABLE + " environment variable");
+            }
+            defaultVault = new FileSystemVault(Paths.get(root));
+        }
+        return defaultVault;
+    }
+
+    /**
+     * Returns the root directory of the vault.
+     *
+     * @return the vault root
+     */
+    public Path getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Walks the vault again and replaces the index of note names.
+     *
+     * @throws UncheckedIOException if the directory cannot be walked
+     */
+    public void reindex() {
+        Map<String, Path> index = new ConcurrentHashMap<>();
+        if (Files.isDirectory(this.root)) {
+            try {
+                Files.walkFileTree(this.root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        boolean hidden = dir.getFileName() != null && dir.getFileName().toString().startsWith(".");
+                        return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String relative = relative(file);
+                        index.put(relative, file);
+                        index.merge(file.getFileName().toString(), file,
+                            (known, found) -> precedes(relative(found), relative(known)) ? found : known);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        this.index = index;
+    }
+
+    /**
+     * Returns whether a note takes a shared file name from another: the
+     * note closer to the vault root wins, then the first by path.
+     *
+     * @param relative vault-relative path of the note, separated by {@code /}
+     * @param other    vault-relative path of the note holding the name so far
+     * @return true if the name resolves to {@code relative} instead of {@code other}
+     */
+    static boolean precedes(String relative, String other) {
+        int depth = depth(relative);
+        int otherDepth = depth(other);
+        return depth != otherDepth ? depth < otherDepth : relative.compareTo(other) < 0;
+    }
+
+    private static int depth(String relative) {
+        int depth = 0;
+        for (int i = relative.indexOf('/'); i >= 0; i = relative.indexOf('/', i + 1)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private String relative(Path file) {
+        return this.root.relativize(file).toString().replace('\\', '/');
+    }
+
+    @Override
+    public Path resolve(String name) {
+        Path indexed = this.index.get(name);
+        if (indexed != null) {
+            return indexed;
+        }
+        Path path = this.root.getFileSystem().getPath(name);
+        return real(path.isAbsolute() ? path : this.root.resolve(path));
+    }
+
+    @Override
+    public Reader open(Path note) throws IOException {
+        return new InputStreamReader(Files.newInputStream(note), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public FileTime lastModified(Path note) {
+        try {
+            return Files.getLastModifiedTime(note);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Path localFile(Path note) {
+        // Zip vaults inherit this class but keep their notes in another file system
+        return note.getFileSystem() == FileSystems.getDefault() ? note : null;
+    }
+
+    /**
+     * Resolves symbolic links if the file exists.
+     */
+    private static Path real(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+}
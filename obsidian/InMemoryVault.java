@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vault whose notes live in memory, for tests and benchmarks.
+ *
+ * <p>Every {@link #put(String, String)} gives the note a new modification
+ * time, so caches notice the change. Notes sharing a file name resolve
+ * like those of a {@link FileSystemVault}: the one closest to the root
+ * wins, then the first by path.</p>
+ */
+public class InMemoryVault implements Vault {
+
+    /** A note's text and modification time */
+    private static final class Note {
+
+        final String text;
+        final FileTime modified;
+
+        Note(String text, FileTime modified) {
+            this.text = text;
+            this.modified = modified;
+        }
+    }
+
+    /** Notes by vault-relative path */
+    private final Map<String, Note> notes = new ConcurrentHashMap<>();
+
+    /** Notes' vault-relative paths by file name */
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    /** Source of strictly increasing modification times */
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Adds or replaces a note.
+     *
+     * @param name vault-relative path including the extension, e.g. {@code Musik/Beat.md}
+     * @param text text of the note
+     */
+    public void put(String name, String text) {
+        FileTime modified = FileTime.from(this.clock.incrementAndGet(), TimeUnit.NANOSECONDS);
+        this.notes.put(name, new Note(text, modified));
+        this.names.merge(fileName(name), name, InMemoryVault::preferred);
+    }
+
+    /**
+     * Removes a note.
+     *
+     * @param name vault-relative path of the note
+     */
+    public void remove(String name) {
+        this.notes.remove(name);
+        String fileName = fileName(name);
+        if (this.names.remove(fileName, name)) {
+            // Hand the name to the next note holding it
+            for (String other : this.notes.keySet()) {
+                if (fileName(other).equals(fileName)) {
+                    this.names.merge(fileName, other, InMemoryVault::preferred);
+                }
+            }
+        }
+    }
+
+    /** Of two notes sharing a file name, returns the one the name resolves to */
+    private static String preferred(String known, String added) {
+        return FileSystemVault.precedes(added, known) ? added : known;
+    }
+
+    private static String fileName(String name) {
+        return Paths.get(name).getFileName().toString();
+    }
+
+    @Override
+    public Path resolve(String name) {
+        if (this.notes.containsKey(name)) {
+            return Paths.get(name);
+        }
+        return Paths.get(this.names.getOrDefault(name, name));
+    }
+
+    @Override
+    public Reader open(Path note) throws IOException {
+        Note found = this.notes.get(key(note));
+        if (found == null) {
+            throw new NoSuchFileException(note.toString());
+        }
+        return new StringReader(found.text);
+    }
+
+    @Override
+    public FileTime lastModified(Path note) {
+        Note found = this.notes.get(key(note));
+        return found == null ? null : found.modified;
+    }
+
+    private static String key(Path note) {
+        return note.toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,43 @@
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by ObsidianBuilder when the notes linked from a document cannot be
+ * included: a note includes itself through a chain of links, the chain is
+ * deeper than allowed, or the build creates more components than its budget.
+ */
+public class InclusionException extends RuntimeException {
+
+    /** Notes being included when the build failed, outermost first */
+    private final List<Path> chain;
+
+    /**
+     * @param message description of the failure
+     * @param chain   notes being included when the build failed, outermost first
+     */
+    public InclusionException(String message, List<Path> chain) {
+        super(message + ": " + format(chain));
+        this.chain = Collections.unmodifiableList(chain);
+    }
+
+    /**
+     * Returns the notes being included when the build failed.
+     *
+     * @return inclusion chain, outermost note first
+     */
+    public List<Path> getChain() {
+        return this.chain;
+    }
+
+    private static String format(List<Path> chain) {
+        StringBuilder out = new StringBuilder();
+        for (Path note : chain) {
+            if (out.length() > 0) {
+                out.append(" -> ");
+            }
+            out.append(note);
+        }
+        return out.toString();
+    }
+}
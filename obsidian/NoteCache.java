@@ -0,0 +1,139 @@
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of parsed Obsidian notes and raw text inclusions, keyed by
+ * their path in the vault and modification time.
+ *
+ * <p>Every ObsidianBuilder owns one for the duration of a build, so each
+ * note is parsed once no matter how often it is linked, and repeated links
+ * share the same frozen subtree. Passing the same cache to several builders
+ * extends this across builds: a note is only parsed again if it or one of
+ * the notes it includes has changed on disk, or if one of its links now
+ * resolves to another file, for example because a note of the same name
+ * was created closer to the vault root.</p>
+ *
+ * <p>The cache is thread-safe.</p>
+ */
+public class NoteCache {
+
+    /**
+     * A cached note or raw inclusion together with the state of the files
+     * it was built from.
+     */
+    static final class Entry {
+
+        /** Modification time of the file when it was read, or null if missing */
+        final FileTime modified;
+
+        /** Frozen component built from the file */
+        final Component component;
+
+        /** Notes the file includes through nested links, with their components, null if missing */
+        final Map<Path, Component> notes;
+
+        /** Files the note includes as raw text, with their components */
+        final Map<Path, Component> texts;
+
+        /** Targets of the note's nested and raw links, with the paths they resolved to */
+        final Map<String, Path> links;
+
+        Entry(FileTime modified, Component component, Map<Path, Component> notes, Map<Path, Component> texts,
+                Map<String, Path> links) {
+            this.modified = modified;
+            this.component = component;
+            this.notes = notes;
+            this.texts = texts;
+            this.links = links;
+        }
+
+        Entry(FileTime modified, Component component) {
+            this(modified, component, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+        }
+    }
+
+    /** Parsed notes, keyed by path */
+    private final Map<Path, Entry> notes = new ConcurrentHashMap<>();
+
+    /** Raw text inclusions, keyed by path */
+    private final Map<Path, Entry> texts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns whether an entry was built from a file with the given
+     * modification time.
+     */
+    static boolean matches(Entry entry, FileTime modified) {
+        return entry != null && Objects.equals(entry.modified, modified);
+    }
+
+    Entry getNote(Path path) {
+        return this.notes.get(path);
+    }
+
+    void putNote(Path path, Entry entry) {
+        this.notes.put(path, entry);
+    }
+
+    Entry getText(Path path) {
+        return this.texts.get(path);
+    }
+
+    void putText(Path path, Entry entry) {
+        this.texts.put(path, entry);
+    }
+
+    /**
+     * Returns whether a cached note is one of the given files or includes
+     * one of them, directly or through nested notes. Notes missing from the
+     * cache are reported as affected.
+     *
+     * @param note  path of a note
+     * @param files paths of files
+     * @return true if the note depends on any of the files
+     */
+    public boolean dependsOn(Path note, Set<Path> files) {
+        return dependsOn(note, files, new HashSet<>());
+    }
+
+    private boolean dependsOn(Path note, Set<Path> files, Set<Path> visited) {
+        if (files.contains(note)) {
+            return true;
+        }
+        if (!visited.add(note)) {
+            return false;
+        }
+        Entry entry = this.notes.get(note);
+        if (entry == null) {
+            return true;
+        }
+        for (Path text : entry.texts.keySet()) {
+            if (files.contains(text)) {
+                return true;
+            }
+        }
+        for (Map.Entry<Path, Component> nested : entry.notes.entrySet()) {
+            // A missing note has no entry of its own, only its creation affects the note
+            boolean affected = nested.getValue() == null
+                ? files.contains(nested.getKey())
+                : dependsOn(nested.getKey(), files, visited);
+            if (affected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops every cached note and raw inclusion.
+     */
+    public void clear() {
+        this.notes.clear();
+        this.texts.clear();
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ * Lexer for the line grammar ObsidianBuilder understands.
+ *
+ * <p>A line is either a heading, a wiki link followed by markers, or
+ * ignored text:</p>
+ * <pre>
+ * line    = "# " title [ "{" { option } "}" ]
+ *         | ["!"] "[[" target ["|" alias] "]]" { marker }
+ * option  = "norepeat" ["=" count] | "batch"
+ * marker  = "!" | "||" | "?" | "####" | "+" | "*" [count ["-" count]]
+ *         | "~" weight
+ * </pre>
+ *
+ * <p>The lexer walks a line once and reports one token at a time through
+ * its accessors, so no Strings or token objects are allocated. Markers are
+ * only recognized after the closing brackets; characters such as {@code +}
+ * or {@code ?} inside the brackets belong to the file name.</p>
+ *
+ * <p>Repeat counts above {@link #MAX_COUNT} and numbers too large to
+ * represent are rejected with a {@link NoteSyntaxException} giving the
+ * column and the line.</p>
+ */
+final class NoteLexer {
+
+    /** Largest count of a repeat marker */
+    static final int MAX_COUNT = 10_000;
+
+    /** Kinds of tokens a line is split into */
+    enum Type {
+        /** Heading starting a new section, spans the line up to its options */
+        HEADING,
+        /** Heading option {@code norepeat=k}, k in {@link #min()} */
+        HISTORY,
+        /** Heading option {@code batch} */
+        BATCH,
+        /** Wiki link, spans the text between the brackets */
+        LINK,
+        /** Wiki link with a leading {@code !}, spans the text between the brackets */
+        EMBED,
+        /** Trailing {@code *}, {@code *4} or {@code *2-8} */
+        REPEAT,
+        /** {@code !} after the link */
+        MARK,
+        /** {@code ||} */
+        BAR,
+        /** {@code ?} */
+        BREAK,
+        /** {@code ####} */
+        NESTED,
+        /** {@code +} */
+        RAW,
+        /** {@code ~2.5}, the weight in {@link #weight()} */
+        WEIGHT
+    }
+
+    /** Line being scanned */
+    private String line = "";
+
+    /** Position of the next character to scan */
+    private int pos;
+
+    /** Whether the link of the line has been scanned */
+    private boolean linked;
+
+    /** End of the heading options, or -1 if the line is no heading with options */
+    private int options = -1;
+
+    /** Type of the current token */
+    private Type type;
+
+    /** Start of the current token's text */
+    private int start;
+
+    /** End of the current token's text, exclusive */
+    private int end;
+
+    /** Count range of the current REPEAT token */
+    private int min;
+    private int max;
+
+    /** Value of the current WEIGHT token */
+    private double weight;
+
+    /**
+     * Starts scanning a new line.
+     *
+     * @param line line of a note without its terminator
+     */
+    void reset(String line) {
+        this.line = line;
+        this.pos = 0;
+        this.linked = false;
+        this.options = -1;
+        this.type = null;
+    }
+
+    /**
+     * Advances to the next token of the line.
+     *
+     * @return false if the line has no more tokens
+     * @throws NoteSyntaxException if a count or weight is too large
+     */
+    boolean next() throws NoteSyntaxException {
+        if (!this.linked) {
+            this.linked = true;
+            return first();
+        }
+        if (this.options >= 0) {
+            return option();
+        }
+        int length = this.line.length();
+        while (this.pos < length) {
+            int at = this.pos;
+            char c = this.line.charAt(this.pos++);
+            switch (c) {
+                case '!':
+                    return token(Type.MARK, at);
+                case '?':
+                    return token(Type.BREAK, at);
+                case '+':
+                    return token(Type.RAW, at);
+                case '|':
+                    if (this.pos < length && this.line.charAt(this.pos) == '|') {
+                        this.pos++;
+                        return token(Type.BAR, at);
+                    }
+                    break;
+                case '#':
+                    while (this.pos < length && this.line.charAt(this.pos) == '#') {
+                        this.pos++;
+                    }
+                    if (this.pos - at >= 4) {
+                        return token(Type.NESTED, at);
+                    }
+                    break;
+                case '*':
+                    return repeat(at);
+                case '~':
+                    if (this.pos < length && Character.isDigit(this.line.charAt(this.pos))) {
+                        this.weight = decimal();
+                        return token(Type.WEIGHT, at);
+                    }
+                    break;
+                default:
+                    // Whitespace and stray characters between markers carry no meaning
+                    break;
+            }
+        }
+        this.type = null;
+        return false;
+    }
+
+    /**
+     * Scans the start of the line: a heading, a link or nothing.
+     */
+    private boolean first() {
+        String l = this.line;
+        if (l.startsWith("# ")) {
+            this.pos = l.length();
+            this.type = Type.HEADING;
+            this.start = 0;
+            this.end = l.length();
+            int close = l.length();
+            while (close > 0 && Character.isWhitespace(l.charAt(close - 1))) {
+                close--;
+            }
+            int open = l.lastIndexOf('{', close);
+            if (close > 2 && l.charAt(close - 1) == '}' && open >= 2) {
+                this.end = open;
+                while (this.end > 2 && Character.isWhitespace(l.charAt(this.end - 1))) {
+                    this.end--;
+                }
+                this.pos = open + 1;
+                this.options = close - 1;
+            }
+            return true;
+        }
+        boolean embed = l.startsWith("![[");
+        if (!embed && !l.startsWith("[[")) {
+            this.pos = l.length();
+            this.type = null;
+            return false;
+        }
+        this.type = embed ? Type.EMBED : Type.LINK;
+        this.start = embed ? 3 : 2;
+        int close = l.indexOf("]]", this.start);
+        this.end = close < 0 ? l.length() : close;
+        this.pos = close < 0 ? l.length() : close + 2;
+        return true;
+    }
+
+    /**
+     * Scans the next heading option, skipping unknown ones.
+     */
+    private boolean option() throws NoteSyntaxException {
+        while (this.pos < this.options) {
+            int at = this.pos;
+            while (this.pos < this.options && Character.isLetter(this.line.charAt(this.pos))) {
+                this.pos++;
+            }
+            if (this.pos == at) {
+                // Separators between options
+                this.pos++;
+                continue;
+            }
+            boolean history = this.line.startsWith("norepeat", at) && this.pos - at == 8;
+            boolean batch = this.line.startsWith("batch", at) && this.pos - at == 5;
+            int value = -1;
+            if (this.pos + 1 < this.options && this.line.charAt(this.pos) == '='
+                    && Character.isDigit(this.line.charAt(this.pos + 1))) {
+                this.pos++;
+                value = number();
+            }
+            if (history) {
+                // Without a count, no child may repeat before all others were drawn
+                this.min = value >= 0 ? value : Integer.MAX_VALUE;
+                this.max = this.min;
+                return token(Type.HISTORY, at);
+            }
+            if (batch) {
+                return token(Type.BATCH, at);
+            }
+        }
+        this.pos = this.line.length();
+        this.options = -1;
+        this.type = null;
+        return false;
+    }
+
+    /**
+     * Scans a decimal number with an optional fraction, such as {@code 2}
+     * or {@code 0.25}.
+     */
+    private double decimal() throws NoteSyntaxException {
+        int at = this.pos;
+        double value = 0;
+        while (this.pos < this.line.length() && Character.isDigit(this.line.charAt(this.pos))) {
+            value = value * 10 + Character.digit(this.line.charAt(this.pos++), 10);
+        }
+        if (this.pos + 1 < this.line.length() && this.line.charAt(this.pos) == '.'
+                && Character.isDigit(this.line.charAt(this.pos + 1))) {
+            this.pos++;
+            double scale = 1;
+            while (this.pos < this.line.length() && Character.isDigit(this.line.charAt(this.pos))) {
+                scale /= 10;
+                value += scale * Character.digit(this.line.charAt(this.pos++), 10);
+            }
+        }
+        if (Double.isInfinite(value)) {
+            throw error("Weight too large", at);
+        }
+        return value;
+    }
+
+    private boolean token(Type type, int at) {
+        this.type = type;
+        this.start = at;
+        this.end = this.pos;
+        return true;
+    }
+
+    /**
+     * Scans the optional count range of a repeat marker whose {@code *} is at
+     * {@code at}.
+     */
+    private boolean repeat(int at) throws NoteSyntaxException {
+        this.min = Repeat.DEFAULT_COUNT;
+        this.max = Repeat.DEFAULT_COUNT;
+        int from = count();
+        if (from >= 0) {
+            int to = from;
+            if (this.pos + 1 < this.line.length() && this.line.charAt(this.pos) == '-'
+                    && Character.isDigit(this.line.charAt(this.pos + 1))) {
+                this.pos++;
+                to = count();
+            }
+            this.min = Math.min(from, to);
+            this.max = Math.max(from, to);
+        }
+        return token(Type.REPEAT, at);
+    }
+
+    /**
+     * Scans the count of a repeat marker.
+     *
+     * @return its value, or -1 if no digit follows
+     */
+    private int count() throws NoteSyntaxException {
+        int at = this.pos;
+        int value = number();
+        if (value > MAX_COUNT) {
+            throw error("Count " + value + " above " + MAX_COUNT, at);
+        }
+        return value;
+    }
+
+    /**
+     * Scans a decimal number.
+     *
+     * @return its value, or -1 if no digit follows
+     */
+    private int number() throws NoteSyntaxException {
+        int at = this.pos;
+        int value = -1;
+        while (this.pos < this.line.length() && Character.isDigit(this.line.charAt(this.pos))) {
+            int digit = Character.digit(this.line.charAt(this.pos++), 10);
+            try {
+                value = Math.addExact(Math.multiplyExact(Math.max(value, 0), 10), digit);
+            } catch (ArithmeticException e) {
+                throw error("Number too large", at);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Creates the exception for a problem at {@code at}.
+     */
+    private NoteSyntaxException error(String problem, int at) {
+        return new NoteSyntaxException(problem + " at column " + (at + 1) + ": " + this.line);
+    }
+
+    /**
+     * Returns the type of the current token.
+     *
+     * @return token type, null before the first or after the last token
+     */
+    Type type() {
+        return this.type;
+    }
+
+    /**
+     * Returns where the current token's text starts in the line.
+     *
+     * @return start index
+     */
+    int start() {
+        return this.start;
+    }
+
+    /**
+     * Returns where the current token's text ends in the line.
+     *
+     * @return end index, exclusive
+     */
+    int end() {
+        return this.end;
+    }
+
+    /**
+     * Returns the smallest count of the current REPEAT token, or the
+     * history of the current HISTORY token.
+     *
+     * @return minimum count
+     */
+    int min() {
+        return this.min;
+    }
+
+    /**
+     * Returns the largest count of the current REPEAT token.
+     *
+     * @return maximum count
+     */
+    int max() {
+        return this.max;
+    }
+
+    /**
+     * Returns the value of the current WEIGHT token.
+     *
+     * @return weight
+     */
+    double weight() {
+        return this.weight;
+    }
+
+    /**
+     * Returns the line being scanned.
+     *
+     * @return line
+     */
+    String line() {
+        return this.line;
+    }
+
+    /**
+     * Extracts the markdown file a link points to.
+     *
+     * @param line  line holding the link
+     * @param start start of the text between the brackets
+     * @param end   end of the text between the brackets, exclusive
+     * @return Name of the linked file, e.g. {@code Musik/Beat.md}
+     */
+    static String target(String line, int start, int end) {
+        // Strip alias after '|'
+        int pipe = line.indexOf('|', start);
+        if (pipe != -1 && pipe < end) {
+            end = pipe;
+        }
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        String name = line.substring(start, end);
+        return name.endsWith(".md") ? name : name + ".md";
+    }
+}
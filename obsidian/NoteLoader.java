@@ -0,0 +1,156 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the files of an Obsidian vault ahead of the ObsidianBuilder.
+ *
+ * <p>Prefetching a note reads it on a bounded pool, finds every note and raw
+ * file it links to and prefetches those in turn, so the whole inclusion
+ * closure is read concurrently while the builder is still parsing the first
+ * note. Loader threads never wait for each other, so a small pool cannot
+ * deadlock on deep inclusion chains. Concurrent requests for the same file
+ * share a single read. Notes whose cached copy in the {@link NoteCache} is
+ * still up to date are not read; only the files they include are
+ * prefetched.</p>
+ */
+class NoteLoader implements AutoCloseable {
+
+    /** Vault the files are read from */
+    private final Vault vault;
+
+    /** Cache consulted to skip notes that need not be parsed again */
+    private final NoteCache cache;
+
+    /** Bounded pool the files are read on */
+    private final ExecutorService pool;
+
+    /** Pending and completed reads, keyed by canonical path */
+    private final Map<Path, CompletableFuture<List<String>>> files = new ConcurrentHashMap<>();
+
+    /** Files whose links have already been followed */
+    private final Set<Path> visited = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param vault   vault the files are read from
+     * @param cache   cache consulted to skip up-to-date notes
+     * @param threads number of loader threads
+     */
+    NoteLoader(Vault vault, NoteCache cache, int threads) {
+        this.vault = vault;
+        this.cache = cache;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "obsidian-note-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts reading a note and, transitively, every file it includes.
+     *
+     * @param path canonical path of the note
+     */
+    void prefetch_note(Path path) {
+        if (!this.visited.add(path)) {
+            return;
+        }
+        this.pool.execute(() -> {
+            NoteCache.Entry entry = this.cache.getNote(path);
+            if (NoteCache.matches(entry, this.vault.lastModified(path))) {
+                // The builder only needs the includes to validate the cached copy
+                entry.notes.keySet().forEach(this::prefetch_note);
+                entry.texts.keySet().forEach(this::prefetch_text);
+                return;
+            }
+            read(path).thenAccept(lines ->
+                ObsidianBuilder.scan_includes(this.vault, lines, this::prefetch_note, this::prefetch_text)
+            );
+        });
+    }
+
+    /**
+     * Starts reading a raw text inclusion unless its cached copy is up to
+     * date or the builder will render it lazily from the file.
+     *
+     * @param path canonical path of the file
+     */
+    void prefetch_text(Path path) {
+        if (!this.visited.add(path)) {
+            return;
+        }
+        this.pool.execute(() -> {
+            if (!NoteCache.matches(this.cache.getText(path), this.vault.lastModified(path))
+                    && ObsidianBuilder.mapped_file(this.vault, path) == null) {
+                read(path);
+            }
+        });
+    }
+
+    /**
+     * Returns the lines of a file, waiting for a pending read or reading it
+     * now if it was never requested.
+     *
+     * @param path canonical path of the file
+     * @return Lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    List<String> lines(Path path) throws IOException {
+        try {
+            return read(path).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a file line by line, the same way the builder does on demand.
+     *
+     * @param vault vault the file is read from
+     * @param file  path of the file in the vault
+     * @return Lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    static List<String> read_lines(Vault vault, Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(vault.open(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        Metrics.count(Metrics.Count.FILES_READ, 1);
+        return lines;
+    }
+
+    private CompletableFuture<List<String>> read(Path path) {
+        return this.files.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return read_lines(this.vault, p);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, this.pool));
+    }
+
+    /**
+     * Stops the loader threads. Pending reads are abandoned.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdownNow();
+    }
+}
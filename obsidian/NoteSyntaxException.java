@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+ * Thrown by NoteLexer when a line of a note cannot be read, for example
+ * because a repeat count is larger than {@link NoteLexer#MAX_COUNT}. Like a
+ * note that cannot be opened, the note is then reported and left out of the
+ * build, see {@link ObsidianBuilder#read(String, String)}.
+ */
+public class NoteSyntaxException extends IOException {
+
+    /**
+     * @param message description of the problem, including the line
+     */
+    public NoteSyntaxException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message description of the problem, including the note and line
+     * @param cause   the problem as reported by the lexer
+     */
+    public NoteSyntaxException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
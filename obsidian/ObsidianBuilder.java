@@ -1,5 +1,15 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * ObsidianBuilder parses an Obsidian markdown file and converts it into a
@@ -17,9 +27,32 @@ import java.util.LinkedList;
  *   <li>Recursive inclusion of nested Obsidian documents</li>
  * </ul>
  * </p>
+ *
+ * <p>Notes are read from a {@link Vault}, which also resolves link targets;
+ * by default the {@link FileSystemVault#getDefault() default vault}.</p>
+ *
+ * <p>Every linked note is parsed once per build, and repeated links share
+ * the same frozen subtree. Builders that share a {@link NoteCache} also
+ * reuse the notes of earlier builds that have not changed on disk.</p>
+ *
+ * <p>With {@link #setLoaderThreads(int)} linked files are read concurrently
+ * by a {@link NoteLoader}; the resulting tree is identical.</p>
+ *
+ * <p>A build fails with an {@link InclusionException} naming the chain of
+ * notes if a note includes itself, if links nest deeper than the maximum
+ * depth, or if the build creates more components than its node budget.</p>
  */
 public class ObsidianBuilder {
 
+    /** Default maximum number of nested note inclusions */
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    /** Default maximum number of components created by one build */
+    public static final int DEFAULT_NODE_BUDGET = 1_000_000;
+
+    /** Size in bytes from which raw text inclusions are rendered lazily from the file */
+    static final long MAPPED_TEXT_THRESHOLD = 64 * 1024;
+
     /** Root component produced by the builder */
     Component component;
 
@@ -27,7 +60,7 @@ public class ObsidianBuilder {
     Composite composite;
 
     /** List of vertical composites (one per section / heading) */
-    LinkedList<Composite> vertical_composites;
+    LinkedList<VerticalComposite> vertical_composites;
 
     /** Current section title (markdown heading) */
     String current_title;
@@ -35,20 +68,295 @@ public class ObsidianBuilder {
     /** Flag to avoid emitting an empty first vertical composite */
     Boolean reading_first_vertical = true;
 
+    /** Vault the notes are read from */
+    private final Vault vault;
+
+    /** Notes and raw inclusions parsed so far, possibly across builds */
+    private final NoteCache cache;
+
+    /** Notes resolved during the current build, shared with nested builders */
+    private final Map<Path, Component> built_notes;
+
+    /** Raw inclusions resolved during the current build, shared with nested builders */
+    private final Map<Path, Component> built_texts;
+
+    /** Notes currently being included, outermost first, shared with nested builders */
+    private final List<Path> inclusion_stack;
+
+    /** Components created during the current build, shared with nested builders */
+    private final AtomicInteger nodes_built;
+
+    /** Maximum number of nested note inclusions */
+    private int max_depth = DEFAULT_MAX_DEPTH;
+
+    /** Maximum number of components created by one build */
+    private int node_budget = DEFAULT_NODE_BUDGET;
+
+    /** Number of threads loading linked files ahead of the parser, 0 to read on demand */
+    private int loader_threads;
+
+    /** Loader of the current build, or null if files are read on demand */
+    private NoteLoader loader;
+
+    /** Notes included by the document this builder reads */
+    private final Map<Path, Component> included_notes = new LinkedHashMap<>();
+
+    /** Raw inclusions of the document this builder reads */
+    private final Map<Path, Component> included_texts = new LinkedHashMap<>();
+
+    /** Targets of the nested and raw links of the document this builder reads, with their paths */
+    private final Map<String, Path> included_links = new HashMap<>();
+
+    /**
+     * Creates a builder for the default vault with its own note cache.
+     */
+    public ObsidianBuilder() {
+        this(FileSystemVault.getDefault(), new NoteCache());
+    }
+
+    /**
+     * Creates a builder for the default vault that reuses the notes in the
+     * given cache.
+     *
+     * @param cache cache shared with other builders
+     */
+    public ObsidianBuilder(NoteCache cache) {
+        this(FileSystemVault.getDefault(), cache);
+    }
+
+    /**
+     * Creates a builder for the given vault with its own note cache.
+     *
+     * @param vault vault the notes are read from
+     */
+    public ObsidianBuilder(Vault vault) {
+        this(vault, new NoteCache());
+    }
+
+    /**
+     * Creates a builder for the given vault that reuses the notes in the
+     * given cache. A cache must only be shared by builders of the same vault.
+     *
+     * @param vault vault the notes are read from
+     * @param cache cache shared with other builders
+     */
+    public ObsidianBuilder(Vault vault, NoteCache cache) {
+        this.vault = vault;
+        this.cache = cache;
+        this.built_notes = new HashMap<>();
+        this.built_texts = new HashMap<>();
+        this.inclusion_stack = new ArrayList<>();
+        this.nodes_built = new AtomicInteger();
+    }
+
+    /**
+     * Creates a builder for a note included by {@code parent}'s build.
+     */
+    private ObsidianBuilder(ObsidianBuilder parent) {
+        this.vault = parent.vault;
+        this.cache = parent.cache;
+        this.built_notes = parent.built_notes;
+        this.built_texts = parent.built_texts;
+        this.inclusion_stack = parent.inclusion_stack;
+        this.nodes_built = parent.nodes_built;
+        this.max_depth = parent.max_depth;
+        this.node_budget = parent.node_budget;
+        this.loader = parent.loader;
+    }
+
+    /**
+     * Enables parallel ingestion: linked notes and raw files are discovered
+     * and read concurrently on a bounded pool while the tree is assembled in
+     * document order on the calling thread.
+     *
+     * @param threads number of loader threads, or 0 to read files on demand
+     */
+    public void setLoaderThreads(int threads) {
+        this.loader_threads = threads;
+    }
+
+    /**
+     * Sets how deeply note inclusions may nest before the build fails.
+     *
+     * @param max_depth maximum number of nested note inclusions
+     */
+    public void setMaxDepth(int max_depth) {
+        this.max_depth = max_depth;
+    }
+
+    /**
+     * Sets how many components a build may create before it fails.
+     * Notes shared between several links are only counted once.
+     *
+     * @param node_budget maximum number of components per build
+     */
+    public void setNodeBudget(int node_budget) {
+        this.node_budget = node_budget;
+    }
+
     /**
      * Builds a Component tree from an Obsidian markdown file.
      *
-     * @param filename Path to the markdown file
+     * @param filename Path to the markdown file, absolute or relative to the vault
      * @param header   Optional header string (currently unused)
      * @return Root Component representing the parsed document
      */
     public Component makeFromObsidian(String filename, String header) {
-        this.composite = new Composite();
+        this.built_notes.clear();
+        this.built_texts.clear();
+        this.inclusion_stack.clear();
+        this.nodes_built.set(0);
+
+        long start = Metrics.start(Metrics.Stage.BUILD);
+        try {
+            Path root = this.vault.resolve(filename);
+            if (this.loader_threads <= 0) {
+                this.component = load_note(root);
+                return this.component;
+            }
+
+            try (NoteLoader parallel = new NoteLoader(this.vault, this.cache, this.loader_threads)) {
+                this.loader = parallel;
+                parallel.prefetch_note(root);
+                this.component = load_note(root);
+            } finally {
+                this.loader = null;
+            }
+            return this.component;
+        } finally {
+            Metrics.stop(Metrics.Stage.BUILD, start);
+            Metrics.count(Metrics.Count.NODES_BUILT, this.nodes_built.get());
+        }
+    }
+
+    /**
+     * Parses a note into a frozen Component tree.
+     *
+     * @param note Path of the note in the vault
+     * @return Root Component, or null if the note could not be read
+     */
+    private Component parse(Path note) {
+        this.composite = node(new Composite());
         this.vertical_composites = new LinkedList<>();
-        this.read(filename, header);
+        this.read(note);
+        if (this.component != null) {
+            // Trim child arrays and lock the tree once parsing is done
+            this.component.freeze();
+        }
         return this.component;
     }
 
+    /**
+     * Returns the frozen tree of a note, parsing it only if neither this
+     * build nor the cache has an up-to-date copy.
+     *
+     * @param path canonical path of the note
+     * @return Root Component of the note, or null if it could not be read
+     * @throws InclusionException if the note includes itself or the
+     *                            inclusion chain is too deep
+     */
+    private Component load_note(Path path) {
+        Component known = this.built_notes.get(path);
+        if (known != null) {
+            return known;
+        }
+
+        if (this.inclusion_stack.contains(path)) {
+            List<Path> chain = new ArrayList<>(this.inclusion_stack);
+            chain.add(path);
+            throw new InclusionException("Note includes itself", chain);
+        }
+        if (this.inclusion_stack.size() >= this.max_depth) {
+            List<Path> chain = new ArrayList<>(this.inclusion_stack);
+            chain.add(path);
+            throw new InclusionException("Inclusion depth " + this.max_depth + " exceeded", chain);
+        }
+
+        this.inclusion_stack.add(path);
+        try {
+            Component note = resolve_note(path);
+            if (note != null) {
+                this.built_notes.put(path, note);
+            }
+            return note;
+        } finally {
+            this.inclusion_stack.remove(this.inclusion_stack.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the cached tree of a note if it is still up to date, or
+     * parses the note otherwise.
+     *
+     * @param path canonical path of the note, on top of the inclusion stack
+     * @return Root Component of the note, or null if it could not be read
+     */
+    private Component resolve_note(Path path) {
+        FileTime modified = this.vault.lastModified(path);
+        NoteCache.Entry entry = this.cache.getNote(path);
+        Component note;
+        if (NoteCache.matches(entry, modified) && includes_unchanged(entry)) {
+            Metrics.count(Metrics.Count.NOTE_CACHE_HITS, 1);
+            note = entry.component;
+        } else {
+            Metrics.count(Metrics.Count.NOTE_CACHE_MISSES, 1);
+            ObsidianBuilder nested = new ObsidianBuilder(this);
+            note = nested.parse(path);
+            if (note != null) {
+                this.cache.putNote(path, new NoteCache.Entry(
+                    modified, note, nested.included_notes, nested.included_texts, nested.included_links
+                ));
+            }
+        }
+        return note;
+    }
+
+    /**
+     * Charges a newly created component against the node budget.
+     *
+     * @param c the new component
+     * @return the same component
+     * @throws InclusionException if the build exceeds its node budget
+     */
+    private <T extends Component> T node(T c) {
+        if (this.nodes_built.incrementAndGet() > this.node_budget) {
+            throw new InclusionException(
+                "Node budget of " + this.node_budget + " components exceeded",
+                new ArrayList<>(this.inclusion_stack)
+            );
+        }
+        return c;
+    }
+
+    /**
+     * Returns whether every link of a cached note still resolves to the same
+     * file, and every note and raw file it includes to the same component in
+     * the current build.
+     */
+    private boolean includes_unchanged(NoteCache.Entry entry) {
+        for (Map.Entry<String, Path> link : entry.links.entrySet()) {
+            if (!this.vault.resolve(link.getKey()).equals(link.getValue())) {
+                return false;
+            }
+        }
+        for (Map.Entry<Path, Component> include : entry.notes.entrySet()) {
+            if (include.getValue() == null) {
+                // Missing when the note was parsed; changed only once it exists
+                if (this.vault.lastModified(include.getKey()) != null) {
+                    return false;
+                }
+            } else if (load_note(include.getKey()) != include.getValue()) {
+                return false;
+            }
+        }
+        for (Map.Entry<Path, Component> include : entry.texts.entrySet()) {
+            if (load_text(include.getKey()) != include.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the root Component produced by the last build.
      *
@@ -65,82 +373,166 @@ public class ObsidianBuilder {
      * <p>Recognized syntax:
      * <ul>
      *   <li><code># </code> — starts a new vertical composite</li>
-     *   <li><code>*</code> — marks the line as repeatable</li>
+     *   <li><code>*</code> — repeats the line; <code>*4</code> repeats it four
+     *       times, <code>*2-8</code> a random number of times in that range</li>
      *   <li><code>[[file]]</code> — includes another Obsidian file</li>
      *   <li><code>!</code> — inserts a LilyPond mark</li>
      *   <li><code>||</code> — inserts a bar line</li>
      *   <li><code>?</code> — inserts a line break</li>
      *   <li><code>####</code> — recursively includes a nested composite</li>
      *   <li><code>+</code> — inserts raw file contents</li>
+     *   <li><code>~2</code> — weights the line's chance of being drawn from
+     *       its section, 1 by default</li>
+     *   <li><code># Title {norepeat=3}</code> — draws of the section do not
+     *       repeat any of the last three lines, <code>{norepeat}</code> any line
+     *       before all others were drawn</li>
+     *   <li><code># Title {batch}</code> — deals the section's lines to the
+     *       variants of a batch without replacement</li>
      * </ul>
+     * Markers follow the closing brackets of the link, see {@link NoteLexer};
+     * other text after the link is kept, without trailing whitespace.
      * </p>
      *
-     * @param filename Path to the markdown file
+     * <p>A note that cannot be read, or that has a line the lexer rejects
+     * such as a count above {@link NoteLexer#MAX_COUNT}, is reported on
+     * standard error and left out: the build has no component for it, and
+     * links that include it render nothing in its place.</p>
+     *
+     * @param filename Path to the markdown file, absolute or relative to the vault
      * @param header   Optional header string (currently unused)
      */
     public void read(String filename, String header) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-
-            // Start with an initial vertical composite
-            this.vertical_composites.add(new VerticalComposite());
+        read(this.vault.resolve(filename));
+    }
 
-            while ((line = br.readLine()) != null) {
-                boolean repeat = false;
+    /**
+     * Reads the given note line by line and constructs the internal
+     * Component hierarchy, see {@link #read(String, String)}.
+     *
+     * @param note Path of the note in the vault
+     */
+    private void read(Path note) {
+        int line_number = 0;
+        try {
+            List<String> lines = read_lines(note);
 
-                // Handle repeat marker
-                if (line.endsWith("*")) {
-                    repeat = true;
-                    line = line.replace("*", "");
+            // Start with an initial vertical composite
+            this.vertical_composites.add(node(new VerticalComposite()));
+
+            NoteLexer lexer = new NoteLexer();
+            StringBuilder tail = new StringBuilder();
+            for (String line : lines) {
+                line_number++;
+                lexer.reset(line);
+                if (!lexer.next()) {
+                    continue;
                 }
 
-                // Section heading
-                if (line.startsWith("# ")) {
+                // Section heading and its options
+                if (lexer.type() == NoteLexer.Type.HEADING) {
                     start_new_vertical_composite(line);
-
-                // Embedded link or image link
-                } else if (line.startsWith("[[") || line.startsWith("![[")) {
-
-                    Composite component = new Composite();
-
-                    // Image links produce a rehearsal mark
-                    if (line.contains("!")) {
-                        line = line.replace("!", "");
-                        component.add(new StringComponent("\\mark \\default"));
+                    while (lexer.next()) {
+                        if (lexer.type() == NoteLexer.Type.HISTORY) {
+                            this.vertical_composites.getLast().setHistory(lexer.min());
+                        } else if (lexer.type() == NoteLexer.Type.BATCH) {
+                            this.vertical_composites.getLast().setBatchSampling(true);
+                        }
                     }
+                    continue;
+                }
 
-                    // Double barline
-                    if (line.contains("||")) {
-                        line = line.replace("||", "");
-                        composite.add(new StringComponent("\\bar \"||\""));
+                // Embedded link or image link, followed by its markers
+                int link_start = lexer.start();
+                int link_end = lexer.end();
+                int link_close = line.startsWith("]]", link_end) ? link_end + 2 : link_end;
+                boolean mark = lexer.type() == NoteLexer.Type.EMBED;
+                // Text after the link with the markers cut out
+                tail.setLength(0);
+                int copied = link_close;
+                boolean bar = false;
+                boolean line_break = false;
+                boolean nested = false;
+                boolean raw = false;
+                boolean repeat = false;
+                double weight = 1;
+                int repeatMin = Repeat.DEFAULT_COUNT;
+                int repeatMax = Repeat.DEFAULT_COUNT;
+                while (lexer.next()) {
+                    append_text(tail, line, copied, lexer.start());
+                    copied = lexer.end();
+                    switch (lexer.type()) {
+                        case MARK:
+                            mark = true;
+                            break;
+                        case BAR:
+                            bar = true;
+                            break;
+                        case BREAK:
+                            line_break = true;
+                            break;
+                        case NESTED:
+                            nested = true;
+                            break;
+                        case RAW:
+                            raw = true;
+                            break;
+                        case WEIGHT:
+                            weight = lexer.weight();
+                            break;
+                        case REPEAT:
+                            repeat = true;
+                            repeatMin = lexer.min();
+                            repeatMax = lexer.max();
+                            break;
+                        default:
+                            break;
                     }
+                }
+                append_text(tail, line, copied, line.length());
+                while (tail.length() > 0 && Character.isWhitespace(tail.charAt(tail.length() - 1))) {
+                    tail.setLength(tail.length() - 1);
+                }
 
-                    // Line break
-                    if (line.contains("?")) {
-                        line = line.replace("?", "");
-                        composite.add(new StringComponent("\\break"));
-                    }
+                Composite component = node(new Composite());
 
-                    // Nested composite
-                    if (line.contains("####")) {
-                        component.add(add_nested_composite(line));
+                // Image links produce a rehearsal mark
+                if (mark) {
+                    component.add(node(new StringComponent("\\mark \\default")));
+                }
 
-                    // Raw text inclusion
-                    } else if (line.contains("+")) {
-                        component.add(add_pure_text_line(line));
+                // Double barline
+                if (bar) {
+                    composite.add(node(new StringComponent("\\bar \"||\"")));
+                }
 
-                    // Normal line inclusion
-                    } else {
-                        component.add(add_line(line));
-                    }
+                // Line break
+                if (line_break) {
+                    composite.add(node(new StringComponent("\\break")));
+                }
 
-                    // Wrap in Repeat if needed
-                    if (repeat) {
-                        Repeat repeater = new Repeat(component);
-                        this.vertical_composites.getLast().add(repeater);
-                    } else {
-                        this.vertical_composites.getLast().add(component);
+                // Nested composite
+                if (nested) {
+                    Component included = add_nested_composite(NoteLexer.target(line, link_start, link_end));
+                    // A note that could not be read has been reported and is left out
+                    if (included != null) {
+                        component.add(included);
                     }
+
+                // Raw text inclusion
+                } else if (raw) {
+                    component.add(add_pure_text_line(NoteLexer.target(line, link_start, link_end)));
+
+                // Normal line inclusion
+                } else {
+                    component.add(add_line(line, link_start - 2, link_close, tail));
+                }
+
+                // Wrap in Repeat if needed
+                if (repeat) {
+                    Repeat repeater = node(new Repeat(component, repeatMin, repeatMax));
+                    this.vertical_composites.getLast().add(repeater, weight);
+                } else {
+                    this.vertical_composites.getLast().add(component, weight);
                 }
             }
 
@@ -148,6 +540,8 @@ public class ObsidianBuilder {
             composite.add(vertical_composites.getLast());
             this.component = composite;
 
+        } catch (NoteSyntaxException e) {
+            new NoteSyntaxException(note + ", line " + line_number + ": " + e.getMessage(), e).printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -155,42 +549,79 @@ public class ObsidianBuilder {
 
     /**
      * Reads the full contents of a referenced markdown file and
-     * inserts it verbatim as a StringComponent.
+     * inserts it verbatim.
      *
-     * @param line Markdown link line with '+' marker
+     * @param target Name of the linked file
      * @return Component containing raw file contents
      */
-    private Component add_pure_text_line(String line) {
-        line = line.replace("+", "");
-        boolean hadBang = line.startsWith("!");
-
-        line = line.replace("[[", "").replace("]]", "");
+    private Component add_pure_text_line(String target) {
+        Path text_path = this.vault.resolve(target);
+        Component text = load_text(text_path);
+        this.included_texts.put(text_path, text);
+        this.included_links.put(target, text_path);
+        return text;
+    }
 
-        if (hadBang) {
-            line = line.substring(1);
+    /**
+     * Returns the raw contents of a file as a component, reading it only if
+     * neither this build nor the cache has an up-to-date copy. Large local
+     * files are not read at all but become a FileRegionComponent.
+     *
+     * @param path canonical path of the file
+     * @return Component containing raw file contents
+     */
+    private Component load_text(Path path) {
+        Component known = this.built_texts.get(path);
+        if (known != null) {
+            return known;
         }
 
-        // Strip alias after '|'
-        int pipeIdx = line.indexOf('|');
-        if (pipeIdx != -1) {
-            line = line.substring(0, pipeIdx);
+        FileTime modified = this.vault.lastModified(path);
+        NoteCache.Entry entry = this.cache.getText(path);
+        Component text;
+        if (NoteCache.matches(entry, modified)) {
+            Metrics.count(Metrics.Count.NOTE_CACHE_HITS, 1);
+            text = entry.component;
+        } else {
+            Metrics.count(Metrics.Count.NOTE_CACHE_MISSES, 1);
+            Path mapped = mapped_file(this.vault, path);
+            text = node(mapped != null ? new FileRegionComponent(mapped) : read_text(path));
+            this.cache.putText(path, new NoteCache.Entry(modified, text));
         }
 
-        line = line.trim();
+        this.built_texts.put(path, text);
+        return text;
+    }
 
-        if (!line.endsWith(".md")) {
-            line = line + ".md";
+    /**
+     * Returns the local file of a raw text inclusion if it is large enough
+     * to be rendered lazily rather than read into a StringComponent.
+     *
+     * @param vault Vault holding the file
+     * @param path  Path of the file in the vault
+     * @return Local file, or null if the file should be read
+     */
+    static Path mapped_file(Vault vault, Path path) {
+        Path local = vault.localFile(path);
+        try {
+            return local != null && Files.size(local) >= MAPPED_TEXT_THRESHOLD ? local : null;
+        } catch (IOException e) {
+            // Missing files are read to report the error in the output
+            return null;
         }
+    }
 
-        String basePath =
-            "/Users/konradbogen/Library/Mobile Documents/com~apple~CloudDocs/Obsidian/konrad/";
-        String filePath = basePath + line;
-
+    /**
+     * Reads the full contents of a file into a StringComponent.
+     *
+     * @param filePath Path of the file in the vault
+     * @return Component containing raw file contents
+     */
+    private Component read_text(Path filePath) {
         StringBuilder fileContent = new StringBuilder();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String l;
-            while ((l = br.readLine()) != null) {
+        try {
+            for (String l : read_lines(filePath)) {
                 fileContent.append(l).append(System.lineSeparator());
             }
         } catch (IOException e) {
@@ -211,55 +642,105 @@ public class ObsidianBuilder {
     }
 
     /**
-     * Wraps a single Obsidian link line into a StringComponent,
-     * ensuring it starts with '!'.
+     * Wraps a single Obsidian link line into a StringComponent as an embed,
+     * keeping the text after the link.
      *
-     * @param line Markdown link line
-     * @return StringComponent containing the processed line
+     * @param line  Markdown link line
+     * @param start Start of the opening brackets
+     * @param end   End of the closing brackets, exclusive
+     * @param tail  Text after the link without its markers
+     * @return StringComponent containing the embed and the text after it
      */
-    private Component add_line(String line) {
-        StringBuilder current_line_content = new StringBuilder();
+    private Component add_line(String line, int start, int end, CharSequence tail) {
+        StringBuilder current_line_content = new StringBuilder(end - start + 1 + tail.length());
+        current_line_content.append('!').append(line, start, end).append(tail);
+        return node(new StringComponent(current_line_content.toString()));
+    }
 
-        if (!line.startsWith("!")) {
-            current_line_content.append("!");
+    /**
+     * Appends the text between two markers to the text after a link. The
+     * whitespace around a marker that was cut out is kept only once.
+     *
+     * @param tail  Text after the link so far
+     * @param line  Markdown link line
+     * @param start Start of the text
+     * @param end   End of the text, exclusive
+     */
+    private static void append_text(StringBuilder tail, String line, int start, int end) {
+        if (tail.length() > 0 && Character.isWhitespace(tail.charAt(tail.length() - 1))) {
+            while (start < end && Character.isWhitespace(line.charAt(start))) {
+                start++;
+            }
         }
-
-        current_line_content.append(line);
-        return new StringComponent(current_line_content.toString());
+        tail.append(line, start, end);
     }
 
     /**
      * Recursively parses a nested Obsidian file and returns its Component tree.
      *
-     * @param line Markdown link with #### marker
-     * @return Component representing the nested document
+     * @param target Name of the linked file
+     * @return Component representing the nested document, or null if it
+     *         could not be read
      */
-    private Component add_nested_composite(String line) {
-        StringBuilder path = new StringBuilder();
-        path.append(
-            "/Users/konradbogen/Library/Mobile Documents/com~apple~CloudDocs/Obsidian/konrad/"
-        );
-
-        line = line.replace("[[", "")
-                   .replace("]]", "")
-                   .replace("####", "");
-
-        int pipeIdx = line.indexOf('|');
-        if (pipeIdx != -1) {
-            line = line.substring(0, pipeIdx);
-        }
-
-        line = line.trim();
+    private Component add_nested_composite(String target) {
+        Path note_path = this.vault.resolve(target);
+        Component nested = load_note(note_path);
+        this.included_notes.put(note_path, nested);
+        this.included_links.put(target, note_path);
+        return nested;
+    }
 
-        if (!line.endsWith(".md")) {
-            line = line + ".md";
+    /**
+     * Finds the files a note includes, applying the same line rules as
+     * {@link #read(String, String)} without building any components.
+     *
+     * @param vault Vault resolving the links
+     * @param lines Lines of the note
+     * @param notes Receives the path of every nested note
+     * @param texts Receives the path of every raw text inclusion
+     */
+    static void scan_includes(Vault vault, List<String> lines, Consumer<Path> notes, Consumer<Path> texts) {
+        NoteLexer lexer = new NoteLexer();
+        for (String line : lines) {
+            lexer.reset(line);
+            int link_start;
+            int link_end;
+            boolean nested = false;
+            boolean raw = false;
+            try {
+                if (!lexer.next() || lexer.type() == NoteLexer.Type.HEADING) {
+                    continue;
+                }
+                link_start = lexer.start();
+                link_end = lexer.end();
+                while (lexer.next()) {
+                    nested |= lexer.type() == NoteLexer.Type.NESTED;
+                    raw |= lexer.type() == NoteLexer.Type.RAW;
+                }
+            } catch (NoteSyntaxException e) {
+                // The build reports the line when it parses the note
+                continue;
+            }
+            if (nested) {
+                notes.accept(vault.resolve(NoteLexer.target(line, link_start, link_end)));
+            } else if (raw) {
+                texts.accept(vault.resolve(NoteLexer.target(line, link_start, link_end)));
+            }
         }
+    }
 
-        path.append(line);
-
-        ObsidianBuilder nested = new ObsidianBuilder();
-        nested.makeFromObsidian(path.toString(), "");
-        return nested.getComponent();
+    /**
+     * Reads the lines of a file, from the parallel loader if one is active.
+     *
+     * @param file Path of the file in the vault
+     * @return Lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    private List<String> read_lines(Path file) throws IOException {
+        if (this.loader != null) {
+            return this.loader.lines(file);
+        }
+        return NoteLoader.read_lines(this.vault, file);
     }
 
     /**
@@ -270,7 +751,7 @@ public class ObsidianBuilder {
     private void start_new_vertical_composite(String line) {
         if (!this.reading_first_vertical) {
             this.composite.add(vertical_composites.getLast());
-            this.vertical_composites.add(new VerticalComposite());
+            this.vertical_composites.add(node(new VerticalComposite()));
         }
 
         this.current_title = line;
@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Source of the notes an ObsidianBuilder reads.
+ *
+ * <p>A vault resolves link targets to note paths and opens notes for
+ * reading. The paths it returns identify notes in caches and inclusion
+ * chains; they need not belong to the default file system.</p>
+ *
+ * @see FileSystemVault
+ * @see ZipVault
+ * @see InMemoryVault
+ */
+public interface Vault {
+
+    /**
+     * Resolves a link target to the path of a note.
+     *
+     * <p>Targets are matched against the vault-relative path of every note
+     * first and against the bare file name second, like Obsidian's own
+     * shortest-path links. Targets that match no note still resolve to a
+     * path, which then fails to open.</p>
+     *
+     * @param name link target including its extension, e.g. {@code Musik/Beat.md}
+     * @return path identifying the note
+     */
+    Path resolve(String name);
+
+    /**
+     * Opens a note for reading.
+     *
+     * @param note path returned by {@link #resolve(String)}
+     * @return reader over the note's text
+     * @throws IOException if the note does not exist or cannot be read
+     */
+    Reader open(Path note) throws IOException;
+
+    /**
+     * Returns when a note was last modified.
+     *
+     * @param note path returned by {@link #resolve(String)}
+     * @return modification time, or null if the note does not exist
+     */
+    FileTime lastModified(Path note);
+
+    /**
+     * Returns a file on the default file system holding the note's bytes,
+     * which lets large raw inclusions be mapped or transferred instead of
+     * read into memory.
+     *
+     * @param note path returned by {@link #resolve(String)}
+     * @return file with the note's contents, or null if the vault has none
+     */
+    default Path localFile(Path note) {
+        return null;
+    }
+}
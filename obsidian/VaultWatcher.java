@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the Component trees of Obsidian notes up to date while the vault
+ * is being edited.
+ *
+ * <p>The watcher registers every directory of the vault with a
+ * {@link WatchService}. When a note changes, only the outputs whose notes
+ * include it are rebuilt. Rebuilds share one {@link NoteCache}, so only the
+ * changed note and the notes linking to it are parsed again; every other
+ * subtree is reused from the previous build, and each affected output is
+ * handed the new tree to render.</p>
+ *
+ * <p>Creating, deleting or renaming a file rebuilds every output, since a
+ * link may now resolve differently. The cache checks the links of every
+ * note it holds, so a note whose link now points to another file is parsed
+ * again even though the note itself has not changed, while all other notes
+ * are still reused.</p>
+ */
+public class VaultWatcher implements Runnable, AutoCloseable {
+
+    /** Time to wait for further events after a change, to coalesce saves */
+    private static final long DEBOUNCE_MILLIS = 50;
+
+    /** Vault being watched */
+    private final FileSystemVault vault;
+
+    /** Notes parsed so far, shared by every rebuild */
+    private final NoteCache cache = new NoteCache();
+
+    /** Watch service notified of changes in the vault */
+    private final WatchService watcher;
+
+    /** Registered outputs in registration order */
+    private final List<Output> outputs = new ArrayList<>();
+
+    /**
+     * A watched note together with the sink rendering its tree.
+     */
+    private static final class Output {
+
+        final Path note;
+        final Consumer<Component> sink;
+        Component component;
+
+        Output(Path note, Consumer<Component> sink) {
+            this.note = note;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * Starts watching every directory of a vault.
+     *
+     * @param vault vault to watch
+     * @throws IOException if the directories cannot be registered
+     */
+    public VaultWatcher(FileSystemVault vault) throws IOException {
+        this.vault = vault;
+        this.watcher = vault.getRoot().getFileSystem().newWatchService();
+        register_all(vault.getRoot());
+    }
+
+    /**
+     * Builds a note, hands its tree to {@code sink} and does so again
+     * whenever the note or anything it includes changes.
+     *
+     * @param filename Path to the markdown file, absolute or relative to the vault
+     * @param sink     renders the tree of the note, e.g. to an output file
+     * @return the initial tree
+     */
+    public synchronized Component watch(String filename, Consumer<Component> sink) {
+        Output output = new Output(this.vault.resolve(filename), sink);
+        this.outputs.add(output);
+        rebuild(output);
+        return output.component;
+    }
+
+    /**
+     * Processes change events until the watcher is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<Path> changed = new HashSet<>();
+                boolean structural = collect(this.watcher.take(), changed);
+
+                // Coalesce the burst of events an editor produces for a single save
+                WatchKey next;
+                while ((next = this.watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    structural |= collect(next, changed);
+                }
+
+                synchronized (this) {
+                    if (structural) {
+                        this.vault.reindex();
+                    }
+                    for (Output output : this.outputs) {
+                        if (structural || this.cache.dependsOn(output.note, changed)) {
+                            rebuild(output);
+                        }
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed, stop watching
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops watching the vault.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.watcher.close();
+    }
+
+    /**
+     * Rebuilds the tree of an output and renders it if it changed.
+     */
+    private void rebuild(Output output) {
+        try {
+            ObsidianBuilder builder = new ObsidianBuilder(this.vault, this.cache);
+            Component component = builder.makeFromObsidian(output.note.toString(), "");
+            if (component != null && component != output.component) {
+                output.component = component;
+                output.sink.accept(component);
+            }
+        } catch (RuntimeException e) {
+            // A broken edit must not stop the watcher; keep the previous tree
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records the files an event key reports and re-arms the key.
+     *
+     * @return true if files were created, deleted or renamed
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean structural = false;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                structural = true;
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                structural = true;
+                if (Files.isDirectory(file)) {
+                    try {
+                        register_all(file);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            changed.add(this.vault.resolve(file.toString()));
+        }
+        key.reset();
+        return structural;
+    }
+
+    private void register_all(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+                    // Skip .obsidian, .trash and similar metadata folders
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dir.register(
+                    VaultWatcher.this.watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY
+                );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
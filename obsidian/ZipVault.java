@@ -0,0 +1,77 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+
+/**
+ * Read-only vault packed into a zip or jar archive.
+ */
+public class ZipVault extends FileSystemVault implements Closeable {
+
+    /** File system of the opened archive */
+    private final FileSystem archive;
+
+    /**
+     * Opens a vault stored at the root of an archive.
+     *
+     * @param zip path to the zip or jar file
+     * @throws IOException if the archive cannot be opened
+     */
+    public ZipVault(Path zip) throws IOException {
+        this(FileSystems.newFileSystem(zip, (ClassLoader) null), "/");
+    }
+
+    /**
+     * Opens a vault stored in a folder of an archive.
+     *
+     * @param zip    path to the zip or jar file
+     * @param folder folder inside the archive that holds the vault
+     * @throws IOException if the archive cannot be opened
+     */
+    public ZipVault(Path zip, String folder) throws IOException {
+        this(FileSystems.newFileSystem(zip, (ClassLoader) null), folder);
+    }
+
+    private ZipVault(FileSystem archive, String folder) {
+        super(root(archive, folder), false);
+        this.archive = archive;
+        try {
+            reindex();
+        } catch (RuntimeException e) {
+            closeAfter(archive, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the vault folder of an archive, closing the archive if the
+     * folder name is invalid.
+     */
+    private static Path root(FileSystem archive, String folder) {
+        try {
+            return archive.getPath(folder);
+        } catch (RuntimeException e) {
+            closeAfter(archive, e);
+            throw e;
+        }
+    }
+
+    private static void closeAfter(FileSystem archive, RuntimeException failure) {
+        try {
+            archive.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Closes the archive.
+     *
+     * @throws IOException if the archive cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.archive.close();
+    }
+}